@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -14,16 +16,35 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    // run scans in pipeline stages of their own
+    static boolean pipelined = false;
+
+    // where the results and messages of this session are printed
+    private final PrintStream out;
+
+    public Parser() {
+        this(System.out);
+    }
+
+    /**
+     * @param out where to print the results of statements, and messages
+     *            about their transactions; each session needs its own
+     */
+    public Parser(PrintStream out) {
+        this.out = out;
+    }
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -63,6 +84,22 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("IN") || wx.getOperator().equals("NOT IN")) {
+            if (wx.nbOperands() != 2 || !(wx.getOperand(0) instanceof ZConstant)
+                    || ((ZConstant) wx.getOperand(0)).getType() != ZConstant.COLUMNNAME
+                    || !(wx.getOperand(1) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "Only IN expressions of the form field IN (subquery) are supported.");
+            }
+            lp.addSemiJoin(((ZConstant) wx.getOperand(0)).getValue(),
+                    subqueryPlan(tid, (ZQuery) wx.getOperand(1)),
+                    wx.getOperator().equals("NOT IN"));
+        } else if (wx.getOperator().equals("EXISTS")) {
+            processExists(tid, wx, lp, false);
+        } else if (wx.getOperator().equals("NOT") && wx.nbOperands() == 1
+                && wx.getOperand(0) instanceof ZExpression
+                && ((ZExpression) wx.getOperand(0)).getOperator().equals("EXISTS")) {
+            processExists(tid, (ZExpression) wx.getOperand(0), lp, true);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -107,10 +144,7 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                            (ZQuery) ops.get(1));
-                    OpIterator pp = sublp.physicalPlan(tid,
-                            TableStats.getStatsMap(), explain);
+                    OpIterator pp = subqueryPlan(tid, (ZQuery) ops.get(1));
                     lp.addJoin(tab1field, pp, op);
                 } else {
                     tab2field = ((ZConstant) ops.get(1)).getValue();
@@ -137,6 +171,120 @@ public class Parser {
 
     }
 
+    /**
+     * @return the physical plan of a subquery, which doesn't take the LIMIT
+     *         and OFFSET of the statement it is part of
+     */
+    private OpIterator subqueryPlan(TransactionId tid, ZQuery q)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
+        int limit = stmtLimit;
+        int offset = stmtOffset;
+        stmtLimit = Limit.NO_LIMIT;
+        stmtOffset = 0;
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            return sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        } finally {
+            stmtLimit = limit;
+            stmtOffset = offset;
+        }
+    }
+
+    /**
+     * Add an EXISTS (or NOT EXISTS) subquery to lp as a semi-join (or
+     * anti-join). A subquery correlated with the outer query by an equality
+     * between one of its fields and a field of an outer table is
+     * decorrelated: the equality is removed from its WHERE clause, and it
+     * returns its field instead, to be matched with the outer one.
+     */
+    private void processExists(TransactionId tid, ZExpression wx, LogicalPlan lp, boolean anti)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
+        if (wx.nbOperands() != 1 || !(wx.getOperand(0) instanceof ZQuery)) {
+            throw new simpledb.ParsingException("EXISTS needs a subquery.");
+        }
+        ZQuery sub = (ZQuery) wx.getOperand(0);
+        Set<String> innerTables = new HashSet<>();
+        @SuppressWarnings("unchecked")
+        List<ZFromItem> from = sub.getFrom();
+        for (ZFromItem fromIt : from) {
+            innerTables.add(fromIt.getAlias() != null ? fromIt.getAlias() : fromIt.getTable());
+        }
+
+        List<ZExp> conjuncts = new ArrayList<>();
+        ZExp w = sub.getWhere();
+        if (w instanceof ZExpression && ((ZExpression) w).getOperator().equals("AND")) {
+            for (int i = 0; i < ((ZExpression) w).nbOperands(); i++) {
+                conjuncts.add(((ZExpression) w).getOperand(i));
+            }
+        } else if (w != null) {
+            conjuncts.add(w);
+        }
+        String innerField = null;
+        String outerField = null;
+        Vector<ZExp> rest = new Vector<>();
+        for (ZExp c : conjuncts) {
+            String[] fields = correlation(c, innerTables);
+            if (fields == null) {
+                rest.add(c);
+            } else if (outerField != null) {
+                throw new simpledb.ParsingException(
+                        "EXISTS subqueries correlated by more than one equality are not supported.");
+            } else {
+                innerField = fields[0];
+                outerField = fields[1];
+            }
+        }
+        if (outerField == null) {
+            // uncorrelated: only whether it has results matters
+            lp.addSemiJoin(null, subqueryPlan(tid, sub), anti);
+            return;
+        }
+        if (sub.getGroupBy() != null) {
+            throw new simpledb.ParsingException(
+                    "GROUP BY in correlated EXISTS subqueries is not supported.");
+        }
+
+        ZQuery decorrelated = new ZQuery();
+        Vector<ZSelectItem> select = new Vector<>();
+        select.add(new ZSelectItem(innerField));
+        decorrelated.addSelect(select);
+        decorrelated.addFrom(sub.getFrom());
+        if (rest.size() == 1) {
+            decorrelated.addWhere(rest.get(0));
+        } else if (rest.size() > 1) {
+            ZExpression and = new ZExpression("AND");
+            and.setOperands(rest);
+            decorrelated.addWhere(and);
+        }
+        lp.addSemiJoin(outerField, subqueryPlan(tid, decorrelated), anti);
+    }
+
+    /**
+     * @param innerTables the aliases of the tables of a subquery
+     * @return the names of the subquery field and of the outer field if e is
+     *         an equality between them, or null
+     */
+    private static String[] correlation(ZExp e, Set<String> innerTables) {
+        if (!(e instanceof ZExpression) || !((ZExpression) e).getOperator().equals("=")
+                || ((ZExpression) e).nbOperands() != 2)
+            return null;
+        ZExp op1 = ((ZExpression) e).getOperand(0);
+        ZExp op2 = ((ZExpression) e).getOperand(1);
+        if (!(op1 instanceof ZConstant) || ((ZConstant) op1).getType() != ZConstant.COLUMNNAME
+                || !(op2 instanceof ZConstant) || ((ZConstant) op2).getType() != ZConstant.COLUMNNAME)
+            return null;
+        String f1 = ((ZConstant) op1).getValue();
+        String f2 = ((ZConstant) op2).getValue();
+        // unqualified fields are taken to be the subquery's
+        boolean inner1 = !f1.contains(".") || innerTables.contains(f1.split("[.]")[0]);
+        boolean inner2 = !f2.contains(".") || innerTables.contains(f2.split("[.]")[0]);
+        if (inner1 && !inner2)
+            return new String[] { f1, f2 };
+        if (inner2 && !inner1)
+            return new String[] { f2, f1 };
+        return null;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -187,23 +335,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
-                System.out.println("GROUP BY FIELD : " + groupByField);
+                String groupByField = ((ZConstant) gbe).getValue();
+                out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +356,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +366,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
-                System.out.println("Aggregate field is " + aggField
+                String aggFun = si.getAggregate();
+                out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,43 +387,188 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        lp.setDistinct(q.isDistinct());
+        lp.setPipelined(pipelined);
+
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
+
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
             }
-            ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+        }
 
+        if (stmtLimit != Limit.NO_LIMIT || stmtOffset > 0) {
+            lp.addLimit(stmtLimit, stmtOffset);
+            stmtLimit = Limit.NO_LIMIT;
+            stmtOffset = 0;
         }
         return lp;
     }
 
+    /**
+     * Zql has no grammar for LIMIT and OFFSET, so a trailing "LIMIT n [OFFSET
+     * m]" or "OFFSET m" clause is cut off the statement text before it is
+     * parsed, and added to the logical plan by parseQueryLogicalPlan.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+(?:limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?|offset\\s+(\\d+))\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    // LIMIT and OFFSET of the statement being parsed
+    private int stmtLimit = Limit.NO_LIMIT;
+    private int stmtOffset = 0;
+
+    /**
+     * Remove a trailing LIMIT/OFFSET clause from the statement s, remembering
+     * its values for the next call to parseQueryLogicalPlan.
+     *
+     * @return s without the clause
+     */
+    String stripLimitClause(String s) throws simpledb.ParsingException {
+        stmtLimit = Limit.NO_LIMIT;
+        stmtOffset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            if (m.group(1) != null)
+                stmtLimit = Integer.parseInt(m.group(1));
+            if (m.group(2) != null)
+                stmtOffset = Integer.parseInt(m.group(2));
+            if (m.group(3) != null)
+                stmtOffset = Integer.parseInt(m.group(3));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT/OFFSET value out of range");
+        }
+        return s.substring(0, m.start()) + m.group(4);
+    }
+
+    /**
+     * EXPLAIN ANALYZE runs the statement that follows it with every operator
+     * measured, and prints what they did instead of the result.
+     */
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "^\\s*explain\\s+analyze\\s+", Pattern.CASE_INSENSITIVE);
+
+    // whether the statement being run is under EXPLAIN ANALYZE
+    private boolean analyze = false;
+
+    /**
+     * Remove a leading EXPLAIN ANALYZE from the statement s, remembering
+     * whether it was there.
+     *
+     * @return s without it
+     */
+    String stripExplainAnalyze(String s) {
+        Matcher m = EXPLAIN_ANALYZE.matcher(s);
+        analyze = m.find();
+        return analyze ? s.substring(m.end()) : s;
+    }
+
+    /**
+     * Run a query measured by {@link ProfiledOperator}, discarding its
+     * result, and print each operator's estimates next to what it did.
+     */
+    private void analyzeQuery(Query query)
+            throws DbException, TransactionAbortedException {
+        query.setPhysicalPlan(ProfiledOperator.profile(query.getPhysicalPlan()));
+        long start = System.nanoTime();
+        query.start();
+        int cnt = 0;
+        while (query.hasNext()) {
+            query.next();
+            cnt++;
+        }
+        query.close();
+        long time = System.nanoTime() - start;
+        out.print(new QueryPlanVisualizer().getAnalyzedPlanTree(query.getPhysicalPlan()));
+        out.printf("%d rows in %.3f ms.%n", cnt, time / 1e6);
+    }
+
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * @return the current versions of the tables q and its subqueries read,
+     *         by table id, or null if one of them isn't in the catalog
+     */
+    private static Map<Integer, Long> tableVersions(ZQuery q) {
+        Set<String> tables = new HashSet<>();
+        referencedTables(q, tables);
+        Map<Integer, Long> versions = new HashMap<>();
+        for (String table : tables) {
+            int tableId;
+            try {
+                tableId = Database.getCatalog().getTableId(table);
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+            versions.put(tableId, Database.getBufferPool().getTableVersion(tableId));
+        }
+        return versions;
+    }
+
+    private static void referencedTables(ZExp e, Set<String> tables) {
+        if (e instanceof ZQuery) {
+            ZQuery q = (ZQuery) e;
+            @SuppressWarnings("unchecked")
+            List<ZFromItem> from = q.getFrom();
+            for (ZFromItem fromIt : from) {
+                tables.add(fromIt.getTable());
+            }
+            referencedTables(q.getWhere(), tables);
+        } else if (e instanceof ZExpression) {
+            ZExpression x = (ZExpression) e;
+            for (int i = 0; i < x.nbOperands(); i++) {
+                referencedTables(x.getOperand(i), tables);
+            }
+        }
+    }
+
+    /**
+     * Builds the query for a SELECT statement. Unless explaining or
+     * analyzing, its result is looked up in the query result cache first,
+     * keyed by the normalized text of the statement and its LIMIT, and
+     * cached once read to the end.
+     */
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
+        QueryResultCache cache = Database.getQueryResultCache();
+        Map<Integer, Long> versions = explain || analyze ? null : tableVersions(s);
+        String key = s.toString();
+        if (stmtLimit != Limit.NO_LIMIT || stmtOffset > 0)
+            key += " limit " + stmtLimit + " offset " + stmtOffset;
+        if (versions != null) {
+            OpIterator cached = cache.get(key, versions);
+            if (cached != null) {
+                stmtLimit = Limit.NO_LIMIT;
+                stmtOffset = 0;
+                out.println("The query result is cached.");
+                query.setPhysicalPlan(cached);
+                return query;
+            }
+        }
+
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
@@ -300,19 +586,21 @@ public class Parser {
                 java.lang.reflect.Method m = c.getMethod(
                         "updateOperatorCardinality", p, h, h);
 
-                System.out.println("The query plan is:");
+                out.println("The query plan is:");
                 m.invoke(null, physicalPlan,
                         lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
                 c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
                 m = c.getMethod(
-                        "printQueryPlanTree", OpIterator.class, System.out.getClass());
-                m.invoke(c.newInstance(), physicalPlan,System.out);
+                        "printQueryPlanTree", OpIterator.class, PrintStream.class);
+                m.invoke(c.newInstance(), physicalPlan, out);
             } catch (ClassNotFoundException | SecurityException ignored) {
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
                 e.printStackTrace();
             }
         }
 
+        if (versions != null && physicalPlan != null)
+            query.setPhysicalPlan(cache.record(key, versions, physicalPlan));
         return query;
     }
 
@@ -434,7 +722,7 @@ public class Parser {
                 curtrans.commit();
                 curtrans = null;
                 inUserTrans = false;
-                System.out.println("Transaction " + curtrans.getId().getId()
+                out.println("Transaction " + curtrans.getId().getId()
                         + " committed.");
                 break;
             case "ROLLBACK":
@@ -444,7 +732,7 @@ public class Parser {
                 curtrans.abort();
                 curtrans = null;
                 inUserTrans = false;
-                System.out.println("Transaction " + curtrans.getId().getId()
+                out.println("Transaction " + curtrans.getId().getId()
                         + " aborted.");
 
                 break;
@@ -455,7 +743,7 @@ public class Parser {
                 curtrans = new Transaction();
                 curtrans.start();
                 inUserTrans = true;
-                System.out.println("Started a new transaction tid = "
+                out.println("Started a new transaction tid = "
                         + curtrans.getId().getId());
                 break;
             default:
@@ -465,7 +753,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimitClause(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
@@ -495,7 +783,15 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) != -1)
+                text.write(buf, 0, n);
+            String stmt = stripLimitClause(
+                    stripExplainAnalyze(text.toString(StandardCharsets.UTF_8.name())));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stmt.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -505,7 +801,7 @@ public class Parser {
                 if (!this.inUserTrans) {
                     curtrans = new Transaction();
                     curtrans.start();
-                    System.out.println("Started a new transaction tid = "
+                    out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
                 }
                 try {
@@ -519,24 +815,26 @@ public class Parser {
                         query = handleQueryStatement((ZQuery) s,
                                 curtrans.getId());
                     else {
-                        System.out
+                        out
                                 .println("Can't parse "
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
-                        query.execute();
+                    if (query != null && analyze)
+                        analyzeQuery(query);
+                    else if (query != null)
+                        query.execute(out);
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
-                        System.out.println("Transaction "
+                        out.println("Transaction "
                                 + curtrans.getId().getId() + " committed.");
                     }
                 } catch (Throwable a) {
                     // Whenever error happens, abort the current transaction
                     if (curtrans != null) {
                         curtrans.abort();
-                        System.out.println("Transaction "
+                        out.println("Transaction "
                                 + curtrans.getId().getId()
                                 + " aborted because of unhandled error");
                     }
@@ -557,21 +855,22 @@ public class Parser {
         } catch (IOException | DbException e) {
             e.printStackTrace();
         } catch (simpledb.ParsingException e) {
-            System.out
+            out
                     .println("Invalid SQL expression: \n \t" + e.getMessage());
         } catch (ParseException | TokenMgrError e) {
-            System.out.println("Invalid SQL expression: \n \t " + e);
+            out.println("Invalid SQL expression: \n \t " + e);
         }
     }
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset",
+            "explain analyze" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,11 +880,11 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-pipeline] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
-        System.out.println("Bye");
+        out.println("Bye");
     }
 
     protected boolean interactive = true;
@@ -601,18 +900,21 @@ public class Parser {
             for (int i = 1; i < argv.length; i++) {
                 if (argv[i].equals("-explain")) {
                     explain = true;
-                    System.out.println("Explain mode enabled.");
+                    out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-pipeline")) {
+                    pipelined = true;
+                    out.println("Pipelined scans enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
-                        System.out.println("Expected file name after -f\n"
+                        out.println("Expected file name after -f\n"
                                 + usage);
                         System.exit(0);
                     }
                     queryFile = argv[i];
 
                 } else {
-                    System.out.println("Unknown argument " + argv[i] + "\n "
+                    out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
@@ -630,13 +932,13 @@ public class Parser {
                 long startTime = System.currentTimeMillis();
                 processNextStatement(new FileInputStream(queryFile));
                 long time = System.currentTimeMillis() - startTime;
-                System.out.printf("----------------\n%.2f seconds\n\n",
+                out.printf("----------------\n%.2f seconds\n\n",
                         ((double) time / 1000.0));
-                System.out.println("Press Enter to exit");
+                out.println("Press Enter to exit");
                 System.in.read();
                 this.shutdown();
             } catch (FileNotFoundException e) {
-                System.out.println("Unable to find query file" + queryFile);
+                out.println("Unable to find query file" + queryFile);
                 e.printStackTrace();
             }
         } else { // no query file, run interactive prompt
@@ -672,7 +974,7 @@ public class Parser {
                     processNextStatement(new ByteArrayInputStream(
                             statementBytes));
                     long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
+                    out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
 
                     // Grab the remainder of the line
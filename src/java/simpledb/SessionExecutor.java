@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.transaction.Transaction;
+
+/**
+ * A SessionExecutor runs many client sessions at once. Each session is a
+ * {@link Parser} printing to its own output, as the interactive prompt of
+ * {@link Parser#main} is for a single client.
+ * <p>
+ * Every statement submitted to a session runs as its own task on the
+ * executor. The statements of a session run one after another, in the order
+ * they were submitted, since a session's transaction and parser aren't thread
+ * safe; statements of different sessions run concurrently. A session holds
+ * no thread between statements, so there can be many more sessions than
+ * threads. By default the tasks run on a fixed pool of
+ * {@link #DEFAULT_THREADS} threads; any other executor can be given instead,
+ * such as one starting a thread per task.
+ * <p>
+ * Sessions share the {@link simpledb.storage.BufferPool}, which reads pages
+ * without holding its monitor, so a statement waiting for the disk doesn't
+ * hold up statements whose pages are cached.
+ *
+ * @Threadsafe
+ */
+public class SessionExecutor implements AutoCloseable {
+
+    /** Number of threads of the default executor. */
+    public static final int DEFAULT_THREADS = 64;
+
+    private final ExecutorService executor;
+    // whether the executor was created by, and is shut down with, this
+    private final boolean ownExecutor;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger statements = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Run sessions on a pool of {@link #DEFAULT_THREADS} threads.
+     */
+    public SessionExecutor() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Run sessions on a pool of the given number of threads, which is shut
+     * down when this is closed.
+     *
+     * @param threads the number of statements to run at once
+     */
+    public SessionExecutor(int threads) {
+        this(Executors.newFixedThreadPool(threads, new SessionThreadFactory()), true);
+    }
+
+    /**
+     * Run sessions on an executor, which is left running when this is
+     * closed.
+     *
+     * @param executor runs each statement as a task
+     */
+    public SessionExecutor(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private SessionExecutor(ExecutorService executor, boolean ownExecutor) {
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Open a new session.
+     *
+     * @param out where to print the results of the session's statements
+     * @return the session, to be closed when the client is done
+     */
+    public Session openSession(PrintStream out) {
+        if (closed)
+            throw new IllegalStateException("session executor is closed");
+        Session session = new Session(new Parser(out));
+        sessions.add(session);
+        return session;
+    }
+
+    /** @return the number of sessions open */
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    /** @return the number of statements submitted and not finished yet */
+    public int getPendingStatements() {
+        return statements.get();
+    }
+
+    /**
+     * Close every open session, waiting for their statements to finish, and
+     * shut down the executor if this created it.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Session session : sessions) {
+            session.close();
+        }
+        if (ownExecutor) {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A client session: a sequence of statements, run in order, and the
+     * transaction they may have started.
+     */
+    public class Session implements AutoCloseable {
+        private final Parser parser;
+
+        /** The last statement submitted; guarded by this. */
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private boolean sessionClosed = false;
+
+        private Session(Parser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * Run a statement once those submitted before it are done. Errors
+         * are printed to the session's output, as at the interactive
+         * prompt.
+         *
+         * @param statement one SQL statement, ending with ';'
+         * @return a future completed when the statement is done
+         */
+        public synchronized CompletableFuture<Void> submit(String statement) {
+            if (sessionClosed)
+                throw new IllegalStateException("session is closed");
+            statements.incrementAndGet();
+            tail = tail.thenRunAsync(() -> {
+                try {
+                    parser.processNextStatement(statement);
+                } finally {
+                    statements.decrementAndGet();
+                }
+            }, executor);
+            return tail;
+        }
+
+        /**
+         * Wait for the statements submitted to finish, then abort the
+         * transaction the session started with SET TRANSACTION, if it is
+         * still running.
+         */
+        public void close() {
+            CompletableFuture<Void> last;
+            synchronized (this) {
+                if (sessionClosed)
+                    return;
+                sessionClosed = true;
+                last = tail;
+            }
+            try {
+                last.join();
+            } catch (CompletionException ignored) {
+                // reported by the statement's own future
+            } finally {
+                Transaction t = parser.getTransaction();
+                if (t != null) {
+                    try {
+                        t.abort();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    parser.setTransaction(null);
+                }
+                sessions.remove(this);
+            }
+        }
+    }
+
+    private static class SessionThreadFactory implements ThreadFactory {
+        private final AtomicInteger threads = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-session-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
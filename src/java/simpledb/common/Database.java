@@ -1,5 +1,7 @@
 package simpledb.common;
 
+import simpledb.execution.MemoryManager;
+import simpledb.execution.QueryResultCache;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
 
@@ -8,8 +10,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Database is a class that initializes several static variables used by the
- * database system (the catalog, the buffer pool, and the log files, in
- * particular.)
+ * database system (the catalog, the buffer pool, the log files, the query
+ * result cache and the memory manager, in particular.)
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
@@ -23,6 +25,8 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final QueryResultCache _resultcache;
+    private final MemoryManager _memorymanager;
 
     private Database() {
         _catalog = new Catalog();
@@ -35,6 +39,8 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        _resultcache = new QueryResultCache(QueryResultCache.DEFAULT_CAPACITY);
+        _memorymanager = new MemoryManager(MemoryManager.DEFAULT_CAPACITY);
         // startControllerThread();
     }
 
@@ -48,6 +54,16 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the query result cache of the static Database instance */
+    public static QueryResultCache getQueryResultCache() {
+        return _instance.get()._resultcache;
+    }
+
+    /** Return the memory manager of the static Database instance */
+    public static MemoryManager getMemoryManager() {
+        return _instance.get()._memorymanager;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -70,6 +86,21 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Method used for testing -- create a new memory manager with the given
+     * capacity and return it
+     */
+    public static MemoryManager resetMemoryManager(long capacity) {
+        try {
+            java.lang.reflect.Field memoryManagerF = Database.class.getDeclaredField("_memorymanager");
+            memoryManagerF.setAccessible(true);
+            memoryManagerF.set(_instance.get(), new MemoryManager(capacity));
+        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
+            e.printStackTrace();
+        }
+        return _instance.get()._memorymanager;
+    }
+
     // reset the database, used for unit tests only.
     public static void reset() {
         _instance.set(new Database());
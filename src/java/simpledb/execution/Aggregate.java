@@ -2,28 +2,37 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 import simpledb.transaction.TransactionAbortedException;
 
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, over a column each, are computed in one pass
+ * over the child, grouped by any number of columns.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of pages worth of groups aggregated in memory. */
+    public static final int DEFAULT_MEMORY_PAGES = 100;
+
+    // approximate size in bytes of the hash slots of a group, and of the
+    // accumulators of each of its aggregates
+    static final int GROUP_OVERHEAD = 16;
+    static final int AGGREGATE_OVERHEAD = 16;
+
     private OpIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
-    private OpIterator resultIter;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private final int memoryPages;
+    transient private OpIterator resultIter;
 
     /**
      * Constructor.
@@ -40,63 +49,145 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor with a memory budget. Once the groups fill the budget, the
+     * tuples of further groups are partitioned to disk by a hash of their
+     * group and aggregated one partition at a time; the results are the same
+     * as when everything fits in memory.
+     *
+     * @param memoryPages the number of pages worth of groups to hold in memory
+     * @see #Aggregate(OpIterator, int, int, Aggregator.Op)
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int memoryPages) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop }, memoryPages);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The operator of each aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups, with a memory
+     * budget.
+     *
+     * @param memoryPages the number of pages worth of groups to hold in memory
+     * @see #Aggregate(OpIterator, int[], int[], Aggregator.Op[])
+     * @see #Aggregate(OpIterator, int, int, Aggregator.Op, int)
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, int memoryPages) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memoryPages must be positive");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.memoryPages = memoryPages;
+        // fail early on unsupported aggregates
+        newAggregator();
+    }
+
+    private Aggregator newAggregator() {
         TupleDesc desc = child.getTupleDesc();
-        Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : desc.getFieldType(gfield);
-        if (desc.getFieldType(afield) == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
-        } else {
-            aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
+        Type[] gfieldTypes = new Type[gfields.length];
+        long groupSize = GROUP_OVERHEAD + (long) AGGREGATE_OVERHEAD * afields.length;
+        for (int i = 0; i < gfields.length; i++) {
+            gfieldTypes[i] = desc.getFieldType(gfields[i]);
+            groupSize += gfieldTypes[i].getLen();
         }
-
+        Type[] afieldTypes = new Type[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            afieldTypes[a] = desc.getFieldType(afields[a]);
+        }
+        int maxGroups = Integer.MAX_VALUE;
+        if (gfields.length > 0) {
+            maxGroups = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    (long) memoryPages * BufferPool.getPageSize() / groupSize));
+        }
+        return new MultiAggregator(gfields, gfieldTypes, afields, afieldTypes, aops, maxGroups);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link Aggregator#NO_GROUPING}
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
         // some code goes here
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples. If
+     *         not, return null;
      */
     public String groupFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(gfield);
+        return gfields.length == 0 ? null : child.getTupleDesc().getFieldName(gfields[0]);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, which are
+     *         the first fields of the output tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return the field of each aggregate, in the order of the aggregate
+     *         columns of the output tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return return the (first) aggregate operator
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return this.aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -108,18 +199,38 @@ public class Aggregate extends Operator {
         // some code goes here
         super.open();
         child.open();
+        resultIter = results();
+        resultIter.open();
+    }
+
+    /**
+     * @return an iterator over the groups of the (open) child, which is
+     *         opened, rewound and closed along with this operator
+     */
+    protected OpIterator results() throws DbException, TransactionAbortedException {
+        return aggregate().iterator();
+    }
+
+    /**
+     * Aggregate the tuples of the (open) child.
+     *
+     * @return an aggregator holding the groups of the whole input
+     */
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        aggregator.setMemory(getQueryMemory().operatorMemory());
         while (child.hasNext()) {
             aggregator.mergeTupleIntoGroup(child.next());
         }
-        resultIter = aggregator.iterator();
+        return aggregator;
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. If there are group by fields, then the first
+     * fields are the fields by which we are grouping, and the following ones
+     * are the results of computing the aggregates. If there is no group by
+     * field, then the result tuple should contain one field per aggregate.
+     * Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -133,25 +244,13 @@ public class Aggregate extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.rewind();
-        TupleDesc desc = child.getTupleDesc();
-        Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : desc.getFieldType(gfield);
-        if (desc.getFieldType(afield) == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
-        } else {
-            aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
-        }
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
-        }
-        resultIter = aggregator.iterator();
+        // the groups don't change, so there is no need to read the child again
+        resultIter.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields, if any,
+     * come first, followed by one column per aggregate.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -160,27 +259,26 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        if (gfield == Aggregator.NO_GROUPING) {
-            Type afieldType = child.getTupleDesc().getFieldType(afield);
-            String afieldName = child.getTupleDesc().getFieldName(afield);
-            return new TupleDesc(new TDItem[] {
-                    new TDItem(afieldType, afieldName)
-            });
-        } else {
-            Type afieldType = child.getTupleDesc().getFieldType(afield);
-            String afieldName = child.getTupleDesc().getFieldName(afield);
-            Type gfieldType = child.getTupleDesc().getFieldType(gfield);
-            String gfieldName = child.getTupleDesc().getFieldName(gfield);
-            return new TupleDesc(new TDItem[] {
-                    new TDItem(gfieldType, gfieldName),
-                    new TDItem(afieldType, afieldName),
-            });
+        TupleDesc childTd = child.getTupleDesc();
+        TDItem[] items = new TDItem[gfields.length + afields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            items[i] = new TDItem(childTd.getFieldType(gfields[i]), childTd.getFieldName(gfields[i]));
+        }
+        // every supported aggregate produces ints
+        for (int a = 0; a < afields.length; a++) {
+            items[gfields.length + a] = new TDItem(Type.INT_TYPE, childTd.getFieldName(afields[a]));
         }
+        return new TupleDesc(items);
     }
 
     public void close() {
         // some code goes here
+        super.close();
         child.close();
+        // deletes any spilled groups
+        if (resultIter != null)
+            resultIter.close();
+        resultIter = null;
     }
 
     @Override
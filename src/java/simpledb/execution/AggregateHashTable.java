@@ -0,0 +1,390 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from group keys to the running state of a
+ * list of aggregates, specialized for primitive keys and accumulators.
+ * <p>
+ * Groups are numbered densely in the order they are first seen. Keys and
+ * accumulators live in arrays indexed by group number, and the hash slots
+ * (linear probing, load factor at most 1/2) only hold group numbers, so no
+ * objects are allocated per tuple, growing the table only rehashes ints, and
+ * groups are iterated in insertion order.
+ * <p>
+ * Accumulators are longs: sums of int values can't overflow before 2^32
+ * tuples have been added to one group.
+ */
+abstract class AggregateHashTable {
+
+    static final int INITIAL_GROUPS = 16;
+
+    final Aggregator.Op[] whats;
+
+    // group number + 1 for each used slot, 0 for empty ones
+    int[] slots;
+    private int groups = 0;
+    private int capacity = INITIAL_GROUPS;
+
+    // for each aggregate, the MIN/MAX/SUM/AVG value, and COUNT/AVG number of
+    // values, of each group; null where the aggregate doesn't need them
+    private final long[][] values;
+    private final long[][] counts;
+
+    AggregateHashTable(Aggregator.Op[] whats) {
+        values = new long[whats.length][];
+        counts = new long[whats.length][];
+        for (int a = 0; a < whats.length; a++) {
+            switch (whats[a]) {
+                case MIN:
+                case MAX:
+                case SUM:
+                    values[a] = new long[capacity];
+                    break;
+                case AVG:
+                    values[a] = new long[capacity];
+                    counts[a] = new long[capacity];
+                    break;
+                case COUNT:
+                    counts[a] = new long[capacity];
+                    break;
+                default:
+                    throw new UnsupportedOperationException("unsupported aggregate " + whats[a]);
+            }
+        }
+        this.whats = whats.clone();
+        this.slots = new int[2 * capacity];
+    }
+
+    /**
+     * @return the number of groups in the table
+     */
+    int size() {
+        return groups;
+    }
+
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the hash of the key of group g, as used to place it in slots
+     */
+    abstract int hashOf(int g);
+
+    /**
+     * Make room for the keys of at least newCapacity groups.
+     */
+    abstract void growKeys(int newCapacity);
+
+    /**
+     * Create a new group in the (empty) slot. The caller must then store the
+     * group's key, and call {@link #maybeRehash()}.
+     *
+     * @return the number of the new group
+     */
+    final int newGroup(int slot) {
+        int g = groups++;
+        if (g == capacity) {
+            capacity *= 2;
+            for (int a = 0; a < whats.length; a++) {
+                if (values[a] != null)
+                    values[a] = Arrays.copyOf(values[a], capacity);
+                if (counts[a] != null)
+                    counts[a] = Arrays.copyOf(counts[a], capacity);
+            }
+            growKeys(capacity);
+        }
+        for (int a = 0; a < whats.length; a++) {
+            if (whats[a] == Aggregator.Op.MIN)
+                values[a][g] = Long.MAX_VALUE;
+            else if (whats[a] == Aggregator.Op.MAX)
+                values[a][g] = Long.MIN_VALUE;
+        }
+        slots[slot] = g + 1;
+        return g;
+    }
+
+    /**
+     * Double the number of slots if the table is more than half full.
+     */
+    final void maybeRehash() {
+        if (2 * groups <= slots.length)
+            return;
+        int[] newSlots = new int[2 * slots.length];
+        int mask = newSlots.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int i = hashOf(g) & mask;
+            while (newSlots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newSlots[i] = g + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Merge the value v of one tuple into aggregate a of group g. For COUNT,
+     * v is ignored.
+     */
+    final void add(int g, int a, int v) {
+        switch (whats[a]) {
+            case MIN:
+                if (v < values[a][g])
+                    values[a][g] = v;
+                break;
+            case MAX:
+                if (v > values[a][g])
+                    values[a][g] = v;
+                break;
+            case SUM:
+                values[a][g] += v;
+                break;
+            case AVG:
+                values[a][g] += v;
+                counts[a][g]++;
+                break;
+            case COUNT:
+                counts[a][g]++;
+                break;
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Merge the aggregates of group og of other, a table computing the same
+     * aggregates over other tuples, into the aggregates of group g.
+     */
+    final void combine(int g, AggregateHashTable other, int og) {
+        for (int a = 0; a < whats.length; a++) {
+            switch (whats[a]) {
+                case MIN:
+                    values[a][g] = Math.min(values[a][g], other.values[a][og]);
+                    break;
+                case MAX:
+                    values[a][g] = Math.max(values[a][g], other.values[a][og]);
+                    break;
+                case SUM:
+                    values[a][g] += other.values[a][og];
+                    break;
+                case AVG:
+                    values[a][g] += other.values[a][og];
+                    counts[a][g] += other.counts[a][og];
+                    break;
+                case COUNT:
+                    counts[a][g] += other.counts[a][og];
+                    break;
+                default:
+                    throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    /**
+     * @return the value of aggregate a of group g; AVG is truncated toward
+     *         zero
+     */
+    final long result(int g, int a) {
+        switch (whats[a]) {
+            case MIN:
+            case MAX:
+            case SUM:
+                return values[a][g];
+            case AVG:
+                return values[a][g] / counts[a][g];
+            case COUNT:
+                return counts[a][g];
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+}
+
+/**
+ * AggregateHashTable keyed on int group values.
+ */
+final class IntAggregateHashTable extends AggregateHashTable {
+
+    private int[] keys = new int[INITIAL_GROUPS];
+
+    IntAggregateHashTable(Aggregator.Op[] whats) {
+        super(whats);
+    }
+
+    /**
+     * @return the number of the group with the given key, created if needed
+     */
+    int findOrInsert(int key) {
+        return lookup(key, true);
+    }
+
+    /**
+     * @param create
+     *            whether to create the group if it doesn't exist
+     * @return the number of the group with the given key, or -1 if there is
+     *         none and create is false
+     */
+    int lookup(int key, boolean create) {
+        int mask = slots.length - 1;
+        int i = mix(key) & mask;
+        while (true) {
+            int s = slots[i];
+            if (s == 0) {
+                if (!create)
+                    return -1;
+                int g = newGroup(i);
+                keys[g] = key;
+                maybeRehash();
+                return g;
+            }
+            if (keys[s - 1] == key)
+                return s - 1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    int key(int g) {
+        return keys[g];
+    }
+
+    @Override
+    int hashOf(int g) {
+        return mix(keys[g]);
+    }
+
+    @Override
+    void growKeys(int newCapacity) {
+        keys = Arrays.copyOf(keys, newCapacity);
+    }
+}
+
+/**
+ * AggregateHashTable keyed on string group values.
+ */
+final class StringAggregateHashTable extends AggregateHashTable {
+
+    private String[] keys = new String[INITIAL_GROUPS];
+    private int[] hashes = new int[INITIAL_GROUPS];
+
+    StringAggregateHashTable(Aggregator.Op[] whats) {
+        super(whats);
+    }
+
+    /**
+     * @return the number of the group with the given key, created if needed
+     */
+    int findOrInsert(String key) {
+        return lookup(key, true);
+    }
+
+    /**
+     * @param create
+     *            whether to create the group if it doesn't exist
+     * @return the number of the group with the given key, or -1 if there is
+     *         none and create is false
+     */
+    int lookup(String key, boolean create) {
+        int h = mix(key.hashCode());
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (true) {
+            int s = slots[i];
+            if (s == 0) {
+                if (!create)
+                    return -1;
+                int g = newGroup(i);
+                keys[g] = key;
+                hashes[g] = h;
+                maybeRehash();
+                return g;
+            }
+            if (hashes[s - 1] == h && keys[s - 1].equals(key))
+                return s - 1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    String key(int g) {
+        return keys[g];
+    }
+
+    @Override
+    int hashOf(int g) {
+        return hashes[g];
+    }
+
+    @Override
+    void growKeys(int newCapacity) {
+        keys = Arrays.copyOf(keys, newCapacity);
+        hashes = Arrays.copyOf(hashes, newCapacity);
+    }
+}
+
+/**
+ * AggregateHashTable keyed on a combination of group values.
+ */
+final class CompositeAggregateHashTable extends AggregateHashTable {
+
+    private Field[][] keys = new Field[INITIAL_GROUPS][];
+    private int[] hashes = new int[INITIAL_GROUPS];
+
+    CompositeAggregateHashTable(Aggregator.Op[] whats) {
+        super(whats);
+    }
+
+    /**
+     * @return the number of the group with the given key, created if needed
+     */
+    int findOrInsert(Field[] key) {
+        return lookup(key, true);
+    }
+
+    /**
+     * @param key
+     *            the group values; copied if a group is created, so the
+     *            caller may reuse the array
+     * @param create
+     *            whether to create the group if it doesn't exist
+     * @return the number of the group with the given key, or -1 if there is
+     *         none and create is false
+     */
+    int lookup(Field[] key, boolean create) {
+        int h = mix(Arrays.hashCode(key));
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (true) {
+            int s = slots[i];
+            if (s == 0) {
+                if (!create)
+                    return -1;
+                int g = newGroup(i);
+                keys[g] = key.clone();
+                hashes[g] = h;
+                maybeRehash();
+                return g;
+            }
+            if (hashes[s - 1] == h && Arrays.equals(keys[s - 1], key))
+                return s - 1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    Field[] key(int g) {
+        return keys[g];
+    }
+
+    @Override
+    int hashOf(int g) {
+        return hashes[g];
+    }
+
+    @Override
+    void growKeys(int newCapacity) {
+        keys = Arrays.copyOf(keys, newCapacity);
+        hashes = Arrays.copyOf(hashes, newCapacity);
+    }
+}
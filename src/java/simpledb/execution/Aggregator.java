@@ -1,5 +1,6 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleIterator;
 
@@ -76,13 +77,25 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if groups have to be spilled to disk and that fails
      */
-    void mergeTupleIntoGroup(Tuple tup);
+    void mergeTupleIntoGroup(Tuple tup) throws DbException;
 
     /**
-     * Create a OpIterator over group aggregate results.
+     * Create a OpIterator over group aggregate results. Its tuples hold the
+     * group-by fields, if any, followed by the aggregate values.
      * @see TupleIterator for a possible helper
      */
     OpIterator iterator();
+
+    /**
+     * Reserve the memory groups are held in from the given account, and
+     * spill new groups to disk when it is refused. By default, the memory
+     * of the groups isn't accounted for.
+     *
+     * @param memory the account of the operator the aggregator belongs to
+     */
+    default void setMemory(OperatorMemory memory) {
+    }
     
 }
@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+
+/**
+ * A Bloom filter over fields: a compact set that may wrongly report that a
+ * field is present, but never that an added field is absent.
+ * <p>
+ * The filter is sized for an expected number of keys at
+ * {@link #BITS_PER_KEY} bits each, with {@link #HASHES} probes per key,
+ * which gives about 1% false positives. The probes are derived from the
+ * field's hashCode by double hashing, so equal fields always probe the same
+ * bits.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bits allocated per expected key. */
+    public static final int BITS_PER_KEY = 10;
+
+    /** Number of bits set and tested per key. */
+    public static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * Create an empty filter.
+     *
+     * @param expectedKeys the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        long wanted = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        // a power of two, at most 2^31 bits
+        int size = (int) Math.min(1L << 31, Long.highestOneBit(wanted - 1) << 1) - 1;
+        mask = size;
+        bits = new long[(int) (((long) size + 1) >>> 6)];
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Add a field to the filter.
+     */
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        // odd, so that the probes of a key are all distinct
+        int h2 = mix(h1 ^ 0x61C88647) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was certainly never added to the filter, true if it
+     *         probably was
+     */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x61C88647) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+}
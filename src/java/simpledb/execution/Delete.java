@@ -11,14 +11,24 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
  * them from the table they belong to.
+ * <p>
+ * Tuples are deleted {@link #BATCH_SIZE} at a time through
+ * {@link BufferPool#deleteTuples}, so that each page holding some of them is
+ * visited and marked dirty once per batch.
  */
 public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Number of child tuples deleted together. */
+    public static final int BATCH_SIZE = 4096;
+
     private TransactionId tid;
     private OpIterator child;
     private static TupleDesc resultTd = new TupleDesc(new Type[] { Type.INT_TYPE });
@@ -83,13 +93,17 @@ public class Delete extends Operator {
         }
 
         int count = 0;
+        List<Tuple> batch = new ArrayList<>();
         while (child.hasNext()) {
-            Tuple tuple = child.next();
-            try {
-                Database.getBufferPool().deleteTuple(tid, tuple);
-                count++;
-            } catch (IOException e) {
-                e.printStackTrace();
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().deleteTuples(tid, batch.iterator());
+                    count += batch.size();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                batch.clear();
             }
         }
         result.setField(0, new IntField(count));
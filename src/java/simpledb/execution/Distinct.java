@@ -0,0 +1,397 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * Distinct is an operator that implements SELECT DISTINCT: it returns the
+ * first tuple of its child with each combination of values of the key
+ * fields, and drops the tuples repeating a combination already returned.
+ * <p>
+ * The keys seen so far are held in an {@link AggregateHashTable} without
+ * aggregates, specialized for a single int or string key field, and a tuple
+ * is returned as soon as its key is first seen. The number of keys held in
+ * memory is bounded, by the memory budget of the operator and by the
+ * {@link OperatorMemory} the keys are reserved from. Once the table is full, tuples whose key isn't in it are
+ * written to one of {@link #SPILL_PARTITIONS} spill files chosen by a hash of
+ * the key, and after the child is exhausted the partitions are
+ * de-duplicated one at a time, recursively spilling partitions that are
+ * still too large with a differently salted hash; past
+ * {@code MAX_SPILL_LEVEL}, a partition whose keys can't get memory fails the
+ * query. Tuples read back from a partition have no RecordId.
+ *
+ * @see StreamDistinct
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages worth of keys held in memory. */
+    public static final int DEFAULT_MEMORY_PAGES = 100;
+
+    private static final int PARTITION_BITS = 4;
+
+    /** The number of spill files new keys are partitioned into. */
+    static final int SPILL_PARTITIONS = 1 << PARTITION_BITS;
+
+    // past this depth of recursive partitioning (i.e. when many keys share
+    // a hash), partitions are de-duplicated in memory whatever their size
+    private static final int MAX_SPILL_LEVEL = 8;
+
+    // approximate size in bytes of the hash slots of a key
+    private static final int KEY_OVERHEAD = 16;
+
+    private OpIterator child;
+    private final int[] fields;
+    private final int memoryPages;
+
+    // the keys of the input being read, created on its first tuple
+    transient private KeySet keys;
+    transient private boolean childDone;
+    // the partition being read, or null while reading the child
+    transient private TupleSpillFile partition;
+    transient private TupleSpillFile.Reader reader;
+    transient private Deque<Partition> pending;
+    // the memory the keys of the input being read are reserved from
+    transient private OperatorMemory memory;
+
+    /**
+     * Constructor for distinct tuples, comparing all of their fields.
+     *
+     * @param child the child operator
+     */
+    public Distinct(OpIterator child) {
+        this(child, allFields(child.getTupleDesc()));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child  the child operator
+     * @param fields the key fields, which must be distinct among the
+     *               returned tuples
+     */
+    public Distinct(OpIterator child, int[] fields) {
+        this(child, fields, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor with a memory budget. Once the keys fill the budget, tuples
+     * with further keys are partitioned to disk and de-duplicated one
+     * partition at a time; the results are the same as when everything fits
+     * in memory, but the spilled tuples are returned last.
+     *
+     * @param memoryPages the number of pages worth of keys to hold in memory
+     * @see #Distinct(OpIterator, int[])
+     */
+    public Distinct(OpIterator child, int[] fields, int memoryPages) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("need at least one key field");
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memoryPages must be positive");
+        this.child = child;
+        this.fields = fields.clone();
+        this.memoryPages = memoryPages;
+    }
+
+    private static int[] allFields(TupleDesc td) {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        return fields;
+    }
+
+    /**
+     * @return the key fields, which are distinct among the returned tuples
+     */
+    public int[] getKeyFields() {
+        return fields.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        release();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        release();
+        reset();
+    }
+
+    private void reset() {
+        memory = getQueryMemory().operatorMemory();
+        keys = null;
+        childDone = false;
+        pending = new ArrayDeque<>();
+    }
+
+    /**
+     * Delete the spill files of the keys not returned yet.
+     */
+    private void release() {
+        if (memory != null)
+            memory.releaseAll();
+        closePartition();
+        if (keys != null)
+            keys.delete();
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.file.delete();
+            }
+            pending.clear();
+        }
+    }
+
+    private void closePartition() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (partition != null) {
+            partition.delete();
+            partition = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (keys == null)
+            keys = new KeySet(0);
+        while (true) {
+            Tuple t = nextInput();
+            if (t == null) {
+                if (!nextPartition())
+                    return null;
+            } else if (keys.add(t)) {
+                return t;
+            }
+        }
+    }
+
+    /**
+     * @return the next tuple of the input being read, or null at its end
+     */
+    private Tuple nextInput() throws DbException, TransactionAbortedException {
+        if (partition != null)
+            return reader.next();
+        if (!childDone) {
+            if (child.hasNext())
+                return child.next();
+            childDone = true;
+        }
+        return null;
+    }
+
+    /**
+     * Move on from the input just read to the next spilled partition.
+     *
+     * @return false if there are no partitions left to read
+     */
+    private boolean nextPartition() throws DbException {
+        closePartition();
+        keys.spillTo(pending);
+        Partition p = pending.poll();
+        if (p == null)
+            return false;
+        memory.releaseAll();
+        keys = new KeySet(p.level);
+        partition = p.file;
+        reader = partition.reader();
+        return true;
+    }
+
+    /** A spilled partition, and how many times its tuples were partitioned. */
+    private static final class Partition {
+        final TupleSpillFile file;
+        final int level;
+
+        Partition(TupleSpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
+    /**
+     * The set of keys of one input, the child or a partition, and the
+     * partitions its tuples with keys that didn't fit were spilled to.
+     */
+    private final class KeySet {
+        private final int level;
+        private final int maxKeys;
+        private final long keySize;
+        // whether the memory of a new key was refused
+        private boolean memoryFull = false;
+
+        // exactly one of these is used: ints for a single int field,
+        // strings for a single string field, composite otherwise
+        private final IntAggregateHashTable ints;
+        private final StringAggregateHashTable strings;
+        private final CompositeAggregateHashTable composite;
+        private final AggregateHashTable table;
+
+        // null until the first tuple whose key doesn't fit in memory
+        private TupleSpillFile[] partitions;
+        // reused to look up composite keys
+        private Field[] keyBuf;
+
+        KeySet(int level) {
+            TupleDesc td = child.getTupleDesc();
+            long keySize = KEY_OVERHEAD;
+            for (int f : fields) {
+                keySize += td.getFieldType(f).getLen();
+            }
+            this.level = level;
+            this.keySize = keySize;
+            this.maxKeys = level < MAX_SPILL_LEVEL
+                    ? (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                            (long) memoryPages * BufferPool.getPageSize() / keySize))
+                    : Integer.MAX_VALUE;
+            Aggregator.Op[] none = new Aggregator.Op[0];
+            if (fields.length > 1) {
+                ints = null;
+                strings = null;
+                composite = new CompositeAggregateHashTable(none);
+                table = composite;
+            } else if (td.getFieldType(fields[0]) == Type.STRING_TYPE) {
+                ints = null;
+                strings = new StringAggregateHashTable(none);
+                composite = null;
+                table = strings;
+            } else {
+                ints = new IntAggregateHashTable(none);
+                strings = null;
+                composite = null;
+                table = ints;
+            }
+        }
+
+        /**
+         * @return true if the key of t wasn't seen before, and t is to be
+         *         returned; false if it is a duplicate, or was spilled
+         */
+        boolean add(Tuple t) throws DbException {
+            boolean hasRoom = partitions == null && !memoryFull && table.size() < maxKeys;
+            int size = table.size();
+            int g;
+            int hash;
+            if (ints != null) {
+                int key = ((IntField) t.getField(fields[0])).getValue();
+                g = ints.lookup(key, hasRoom);
+                hash = key;
+            } else if (strings != null) {
+                String key = ((StringField) t.getField(fields[0])).getValue();
+                g = strings.lookup(key, hasRoom);
+                hash = key.hashCode();
+            } else {
+                if (keyBuf == null)
+                    keyBuf = new Field[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    keyBuf[i] = t.getField(fields[i]);
+                }
+                g = composite.lookup(keyBuf, hasRoom);
+                hash = Arrays.hashCode(keyBuf);
+            }
+            if (g >= 0) {
+                if (table.size() == size)
+                    return false;
+                reserveKey();
+                return true;
+            }
+            spill(t, hash);
+            return false;
+        }
+
+        /**
+         * Reserve the memory of a new key. If it is refused, the key is kept,
+         * but the keys after it are spilled, unless the input can't be
+         * partitioned any further.
+         */
+        private void reserveKey() throws DbException {
+            if (level >= MAX_SPILL_LEVEL)
+                memory.reserve(keySize, "distinct keys");
+            else if (!memory.tryReserve(keySize))
+                memoryFull = true;
+        }
+
+        /**
+         * Write a tuple whose key isn't in memory to the partition for its
+         * key.
+         */
+        private void spill(Tuple t, int hash) throws DbException {
+            if (partitions == null) {
+                partitions = new TupleSpillFile[SPILL_PARTITIONS];
+                for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                    partitions[i] = new TupleSpillFile(child.getTupleDesc());
+                }
+            }
+            // the high bits of a hash salted by level, independent of the
+            // slot the key would get in memory and of the partitioning one
+            // level up
+            int p = AggregateHashTable.mix(hash ^ (0x61C88647 * (level + 1))) >>> (32 - PARTITION_BITS);
+            partitions[p].add(t);
+        }
+
+        /**
+         * Hand the non-empty partitions over to be read, once the input of
+         * this set is exhausted.
+         */
+        void spillTo(Deque<Partition> pending) throws DbException {
+            if (partitions == null)
+                return;
+            for (TupleSpillFile f : partitions) {
+                if (f.size() == 0) {
+                    f.delete();
+                } else {
+                    f.finish();
+                    pending.push(new Partition(f, level + 1));
+                }
+            }
+            partitions = null;
+        }
+
+        void delete() {
+            if (partitions != null) {
+                for (TupleSpillFile f : partitions) {
+                    f.delete();
+                }
+                partitions = null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
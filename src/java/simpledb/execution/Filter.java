@@ -9,14 +9,23 @@ import simpledb.storage.TupleIterator;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select, on one
+ * predicate or a conjunction of them.
+ * <p>
+ * The predicates are compiled by {@link PredicateCompiler} rather than
+ * evaluated through {@link Predicate#filter}. Over a scan of a heap file,
+ * they are pushed down into the scan and tested on the records of its
+ * pages, so that tuples failing them are never decoded.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
-    private Predicate p;
+    private final List<Predicate> conjuncts;
+    private final PredicateCompiler.TupleFilter compiled;
     private OpIterator child;
     private TupleIterator filterResult;
+    // true while the child scan tests the predicates itself
+    transient private boolean pushedDown;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -29,13 +38,39 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
-        this.p = p;
+        this(Collections.singletonList(p), child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates, all of which tuples
+     * must pass, and a child operator to read tuples to filter from.
+     *
+     * @param conjuncts
+     *              The predicates to filter tuples with, tested in order
+     * @param child
+     *              The child operator
+     */
+    public Filter(List<Predicate> conjuncts, OpIterator child) {
+        if (conjuncts.isEmpty())
+            throw new IllegalArgumentException("need at least one predicate");
+        this.conjuncts = new ArrayList<>(conjuncts);
+        this.compiled = PredicateCompiler.compile(this.conjuncts);
         this.child = child;
     }
 
+    /**
+     * @return the (first) predicate
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return p;
+        return conjuncts.get(0);
+    }
+
+    /**
+     * @return all the predicates tuples must pass
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(conjuncts);
     }
 
     public TupleDesc getTupleDesc() {
@@ -46,18 +81,19 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pushedDown = child instanceof SeqScan && ((SeqScan) child).pushDownPredicates(conjuncts);
         child.open();
         super.open();
-        filterResult = filter(child, p);
+        filterResult = filter(child, pushedDown ? t -> true : compiled);
         filterResult.open();
     }
 
-    private TupleIterator filter(OpIterator child, Predicate predicate)
+    private TupleIterator filter(OpIterator child, PredicateCompiler.TupleFilter predicate)
             throws DbException, TransactionAbortedException {
         ArrayList<Tuple> tuples = new ArrayList<>();
         while (child.hasNext()) {
             Tuple t = child.next();
-            if (predicate.filter(t)) {
+            if (predicate.test(t)) {
                 tuples.add(t);
             }
         }
@@ -68,6 +104,9 @@ public class Filter extends Operator {
         // some code goes here
         super.close();
         child.close();
+        if (pushedDown)
+            ((SeqScan) child).pushDownPredicates(null);
+        pushedDown = false;
         filterResult = null;
     }
 
@@ -79,7 +118,8 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicates (i.e. for which the Predicate.filter() of each
+     * returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -0,0 +1,472 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Computes a list of aggregates per group with an {@link AggregateHashTable};
+ * the implementation behind {@link IntegerAggregator},
+ * {@link StringAggregator} and {@link MultiAggregator}. Groups are keyed on
+ * any number of fields, with specialized tables for a single int or string
+ * field.
+ * <p>
+ * The number of groups held in memory can be bounded, by a number of groups
+ * and by the {@link OperatorMemory} they are reserved from. Once the table is full,
+ * tuples of groups already in it are still aggregated in memory, but tuples of
+ * new groups are written, reduced to their group and aggregate fields, to one
+ * of {@link #SPILL_PARTITIONS} spill files chosen by a hash of the group.
+ * Every group thus lives either in memory or in exactly one partition, and the
+ * iterator aggregates the partitions one at a time after returning the
+ * in-memory groups, recursively spilling partitions that are still too large
+ * with a differently salted hash. Past {@code MAX_SPILL_LEVEL}, a partition
+ * whose groups can't get memory fails the query.
+ */
+class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int PARTITION_BITS = 4;
+
+    /** The number of spill files new groups are partitioned into. */
+    static final int SPILL_PARTITIONS = 1 << PARTITION_BITS;
+
+    // past this depth of recursive partitioning (i.e. when many tuples share
+    // a hash), partitions are aggregated in memory whatever their size
+    private static final int MAX_SPILL_LEVEL = 8;
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Op[] whats;
+    private final boolean[] intValues;
+
+    // exactly one of these is used: intGroups without grouping (every tuple
+    // goes to the group with int key 0) or for a single int field,
+    // stringGroups for a single string field, compositeGroups otherwise
+    private final IntAggregateHashTable intGroups;
+    private final StringAggregateHashTable stringGroups;
+    private final CompositeAggregateHashTable compositeGroups;
+    private final AggregateHashTable table;
+
+    private final int maxGroups;
+    private final int level;
+
+    // the memory groups are reserved from, if it is accounted for, and
+    // whether it was refused
+    private transient OperatorMemory memory;
+    private transient boolean memoryFull = false;
+    // null until the first tuple of a group that doesn't fit in memory
+    private transient TupleSpillFile[] partitions;
+    private transient boolean released = false;
+    // reused to look up composite keys
+    private transient Field[] keyBuf;
+
+    /**
+     * @param gbfield
+     *                    the index of the group-by field, or NO_GROUPING
+     * @param gbfieldtype
+     *                    the type of the group-by field, or null
+     * @param afield
+     *                    the index of the aggregate field
+     * @param what
+     *                    the aggregation operator
+     * @param intValues
+     *                    true if the aggregate field is an int; otherwise its
+     *                    values are ignored, which only makes sense for COUNT
+     */
+    HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what, boolean intValues) {
+        this(gbfield, gbfieldtype, afield, what, intValues, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param maxGroups
+     *                    the maximum number of groups to hold in memory before
+     *                    spilling new groups to disk
+     * @param level
+     *                    how many times the input has already been partitioned,
+     *                    0 for the original input
+     * @see #HashAggregator(int, Type, int, Op, boolean)
+     */
+    HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what, boolean intValues,
+            int maxGroups, int level) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype },
+                new int[] { afield }, new Op[] { what }, new boolean[] { intValues },
+                maxGroups, level);
+    }
+
+    /**
+     * @param gbfields
+     *                     the indexes of the group-by fields; empty if there is
+     *                     no grouping
+     * @param gbfieldtypes
+     *                     the types of the group-by fields
+     * @param afields
+     *                     the index of the field of each aggregate
+     * @param whats
+     *                     the operator of each aggregate
+     * @param intValues
+     *                     for each aggregate, true if its field is an int;
+     *                     otherwise its values are ignored, which only makes
+     *                     sense for COUNT
+     * @see #HashAggregator(int, Type, int, Op, boolean, int, int)
+     */
+    HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats, boolean[] intValues,
+            int maxGroups, int level) {
+        if (gbfields.length != gbfieldtypes.length)
+            throw new IllegalArgumentException("need one type per group-by field");
+        if (afields.length == 0 || afields.length != whats.length || afields.length != intValues.length)
+            throw new IllegalArgumentException("need one field and operator per aggregate");
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive");
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.intValues = intValues.clone();
+        this.maxGroups = level < MAX_SPILL_LEVEL ? maxGroups : Integer.MAX_VALUE;
+        this.level = level;
+        if (gbfields.length > 1) {
+            intGroups = null;
+            stringGroups = null;
+            compositeGroups = new CompositeAggregateHashTable(whats);
+            table = compositeGroups;
+        } else if (gbfields.length == 1 && gbfieldtypes[0] == Type.STRING_TYPE) {
+            intGroups = null;
+            stringGroups = new StringAggregateHashTable(whats);
+            compositeGroups = null;
+            table = stringGroups;
+        } else {
+            intGroups = new IntAggregateHashTable(whats);
+            stringGroups = null;
+            compositeGroups = null;
+            table = intGroups;
+            // an ungrouped COUNT or SUM of no tuples is still 0
+            if (gbfields.length == 0) {
+                for (Op what : whats) {
+                    if (what == Op.COUNT || what == Op.SUM) {
+                        intGroups.findOrInsert(0);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setMemory(OperatorMemory memory) {
+        this.memory = memory;
+    }
+
+    @Override
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        int groups = table.size();
+        int g;
+        if (gbfields.length == 0) {
+            g = intGroups.findOrInsert(0);
+        } else if (intGroups != null) {
+            int key = ((IntField) tup.getField(gbfields[0])).getValue();
+            g = intGroups.lookup(key, hasRoom());
+            if (g < 0) {
+                spill(tup, key);
+                return;
+            }
+        } else if (stringGroups != null) {
+            String key = ((StringField) tup.getField(gbfields[0])).getValue();
+            g = stringGroups.lookup(key, hasRoom());
+            if (g < 0) {
+                spill(tup, key.hashCode());
+                return;
+            }
+        } else {
+            if (keyBuf == null)
+                keyBuf = new Field[gbfields.length];
+            for (int i = 0; i < gbfields.length; i++) {
+                keyBuf[i] = tup.getField(gbfields[i]);
+            }
+            g = compositeGroups.lookup(keyBuf, hasRoom());
+            if (g < 0) {
+                spill(tup, Arrays.hashCode(keyBuf));
+                return;
+            }
+        }
+        if (table.size() > groups)
+            reserveGroup();
+        for (int a = 0; a < afields.length; a++) {
+            table.add(g, a, value(tup, a));
+        }
+    }
+
+    /**
+     * Reserve the memory of a new group. If it is refused, the group is kept,
+     * but the groups after it are spilled, unless the input can't be
+     * partitioned any further.
+     */
+    private void reserveGroup() throws DbException {
+        if (memory == null)
+            return;
+        long bytes = Aggregate.GROUP_OVERHEAD + (long) Aggregate.AGGREGATE_OVERHEAD * afields.length;
+        for (Type t : gbfieldtypes) {
+            bytes += t.getLen();
+        }
+        if (level >= MAX_SPILL_LEVEL)
+            memory.reserve(bytes, "aggregate groups");
+        else if (!memory.tryReserve(bytes))
+            memoryFull = true;
+    }
+
+    /**
+     * @return the value of the field of aggregate a in tup, or 0 if it isn't
+     *         an int
+     */
+    private int value(Tuple tup, int a) {
+        return intValues[a] ? ((IntField) tup.getField(afields[a])).getValue() : 0;
+    }
+
+    /**
+     * @return true if a new group may be created in memory
+     */
+    private boolean hasRoom() {
+        return partitions == null && !memoryFull && table.size() < maxGroups;
+    }
+
+    /**
+     * @return the schema of the output, and of spilled tuples: the group
+     *         fields, then one int per aggregate
+     */
+    private TupleDesc groupTupleDesc() {
+        Type[] types = new Type[gbfields.length + afields.length];
+        System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        return new TupleDesc(types);
+    }
+
+    /**
+     * Write the group and aggregate values of a tuple whose group isn't in
+     * memory to the partition for its group.
+     */
+    private void spill(Tuple tup, int hash) throws DbException {
+        if (released)
+            throw new DbException("can't aggregate more tuples after the iterator was closed");
+        TupleDesc spillTd = groupTupleDesc();
+        if (partitions == null) {
+            partitions = new TupleSpillFile[SPILL_PARTITIONS];
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                partitions[i] = new TupleSpillFile(spillTd);
+            }
+        }
+        Tuple t = new Tuple(spillTd);
+        for (int i = 0; i < gbfields.length; i++) {
+            t.setField(i, tup.getField(gbfields[i]));
+        }
+        for (int a = 0; a < afields.length; a++) {
+            t.setField(gbfields.length + a, new IntField(value(tup, a)));
+        }
+        // the high bits of a hash salted by level, independent of the slot
+        // the group would get in memory and of the partitioning one level up
+        int p = AggregateHashTable.mix(hash ^ (0x61C88647 * (level + 1))) >>> (32 - PARTITION_BITS);
+        partitions[p].add(t);
+    }
+
+    /**
+     * @return an aggregator for the tuples of a spilled partition
+     */
+    private HashAggregator partitionAggregator() {
+        int[] fields = new int[gbfields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        int[] values = new int[afields.length];
+        boolean[] ints = new boolean[afields.length];
+        for (int a = 0; a < values.length; a++) {
+            values[a] = gbfields.length + a;
+            ints[a] = true;
+        }
+        return new HashAggregator(fields, gbfieldtypes, values, whats, ints, maxGroups, level + 1);
+    }
+
+    /**
+     * Merge the groups of other, which must compute the same aggregates over
+     * other tuples, into this aggregator. AVG groups are merged by their sums
+     * and counts, so the result is the same as if this aggregator had seen
+     * the tuples of both. The groups are merged in memory, whatever the
+     * budget of this aggregator.
+     *
+     * @throws IllegalStateException if either aggregator has spilled groups
+     */
+    void merge(HashAggregator other) {
+        if (!Arrays.equals(whats, other.whats) || !Arrays.equals(gbfieldtypes, other.gbfieldtypes))
+            throw new IllegalArgumentException("can only merge aggregators of the same aggregates");
+        if (hasSpilled() || other.hasSpilled())
+            throw new IllegalStateException("can't merge aggregators with spilled groups");
+        for (int og = 0; og < other.table.size(); og++) {
+            int g;
+            if (intGroups != null)
+                g = intGroups.findOrInsert(other.intGroups.key(og));
+            else if (stringGroups != null)
+                g = stringGroups.findOrInsert(other.stringGroups.key(og));
+            else
+                g = compositeGroups.findOrInsert(other.compositeGroups.key(og));
+            table.combine(g, other.table, og);
+        }
+    }
+
+    /**
+     * @return true if some groups were spilled to disk
+     */
+    boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Delete the spill files, after which the groups in them can't be
+     * iterated anymore.
+     */
+    private void release() {
+        released = true;
+        if (partitions != null) {
+            for (TupleSpillFile f : partitions) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Groups are returned in memory first, then partition by partition. If
+     * groups were spilled, closing the iterator deletes the spill files, and
+     * it can't be reopened.
+     */
+    @Override
+    public OpIterator iterator() {
+        final TupleDesc td = groupTupleDesc();
+
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            int next = 0;
+            boolean closed = true;
+            // the next partition to aggregate, and the results of the last one
+            int nextPartition = 0;
+            OpIterator partitionIter = null;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                if (released)
+                    throw new DbException("spilled groups have already been released");
+                if (partitions != null) {
+                    for (TupleSpillFile f : partitions) {
+                        f.finish();
+                    }
+                }
+                closed = false;
+            }
+
+            /**
+             * Aggregate partitions until one has a group, or none are left.
+             */
+            private boolean advancePartition() throws DbException, TransactionAbortedException {
+                while (partitionIter == null || !partitionIter.hasNext()) {
+                    closePartition();
+                    if (partitions == null || nextPartition == partitions.length)
+                        return false;
+                    TupleSpillFile f = partitions[nextPartition++];
+                    if (f.size() == 0)
+                        continue;
+                    HashAggregator sub = partitionAggregator();
+                    if (memory != null) {
+                        // the groups in memory have all been returned, so
+                        // their memory goes to the partitions
+                        memory.releaseAll();
+                        sub.setMemory(memory.getQueryMemory().operatorMemory());
+                    }
+                    TupleSpillFile.Reader reader = f.reader();
+                    try {
+                        Tuple t;
+                        while ((t = reader.next()) != null) {
+                            sub.mergeTupleIntoGroup(t);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                    partitionIter = sub.iterator();
+                    partitionIter.open();
+                }
+                return true;
+            }
+
+            private void closePartition() {
+                if (partitionIter != null) {
+                    partitionIter.close();
+                    partitionIter = null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (closed)
+                    return false;
+                return next < table.size() || advancePartition();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (next == table.size())
+                    return partitionIter.next();
+                int g = next++;
+                Tuple tuple = new Tuple(td);
+                if (compositeGroups != null) {
+                    Field[] key = compositeGroups.key(g);
+                    for (int i = 0; i < key.length; i++) {
+                        tuple.setField(i, key[i]);
+                    }
+                } else if (stringGroups != null) {
+                    tuple.setField(0, new StringField(stringGroups.key(g), Type.STRING_LEN));
+                } else if (gbfields.length == 1) {
+                    tuple.setField(0, new IntField(intGroups.key(g)));
+                }
+                for (int a = 0; a < afields.length; a++) {
+                    long value = table.result(g, a);
+                    if (value != (int) value)
+                        throw new DbException(whats[a] + " of group " + g + " overflows an int field");
+                    tuple.setField(gbfields.length + a, new IntField((int) value));
+                }
+                return tuple;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                next = 0;
+                nextPartition = 0;
+                closePartition();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                closePartition();
+                if (partitions != null)
+                    release();
+                if (memory != null)
+                    memory.releaseAll();
+            }
+        };
+    }
+}
@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.JoinedTuple;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,6 +11,14 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The tuples of child1 are loaded into a hash table, {@link #MAP_SIZE} at a
+ * time, or as many as the query can spare from its {@link QueryMemory} if
+ * that is fewer, and probed with each tuple of child2. When all of child1 fits in one
+ * hash table, a {@link BloomFilter} of its join keys is pushed down to the
+ * {@link SeqScan} that child2 reads from, possibly through {@link Filter}s,
+ * so that the tuples of child2 that can't join are dropped as they are read
+ * rather than passed up and probed.
  */
 public class HashEquiJoin extends Operator {
 
@@ -16,8 +26,13 @@ public class HashEquiJoin extends Operator {
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
+    private boolean lateMaterialization = false;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    // the probe-side scan filtered on the join keys, if any
+    transient private SeqScan filteredScan = null;
+    transient private BloomFilter buildKeys = null;
+    transient private OperatorMemory memory = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -37,6 +52,23 @@ public class HashEquiJoin extends Operator {
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Choose whether joined tuples are copied into new tuples (the default),
+     * or returned as {@link JoinedTuple} views of the two tuples joined, so
+     * that fields are only copied by the operator consuming them.
+     */
+    public void setLateMaterialization(boolean late) {
+        this.lateMaterialization = late;
+    }
+
+    /**
+     * @return true if this join returns views rather than copies
+     * @see #setLateMaterialization(boolean)
+     */
+    public boolean isLateMaterialization() {
+        return lateMaterialization;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -61,11 +93,15 @@ public class HashEquiJoin extends Operator {
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        memory.releaseAll();
+        int size = child1.getTupleDesc().getSize();
         while (child1.hasNext()) {
             t1 = child1.next();
+            // the tuple that doesn't fit ends the chunk
+            boolean room = memory.tryReserve(size);
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (!room || cnt++ == MAP_SIZE)
                 return true;
         }
         return cnt > 0;
@@ -75,19 +111,65 @@ public class HashEquiJoin extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
+        memory = getQueryMemory().operatorMemory();
         loadMap();
+        // before opening child2: a Filter reads its child when opened
+        if (!child1.hasNext())
+            pushDownBuildKeys();
+        child2.open();
         super.open();
     }
 
+    /**
+     * @return the scan under child2 whose tuples are child2's tuples, minus
+     *         those filtered out, or null if there is none
+     */
+    private static SeqScan probeScan(OpIterator child2) {
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        return it instanceof SeqScan ? (SeqScan) it : null;
+    }
+
+    /**
+     * Filter the scan under child2 on the keys of the hash table, which must
+     * hold all of child1.
+     */
+    private void pushDownBuildKeys() {
+        filteredScan = probeScan(child2);
+        if (filteredScan == null)
+            return;
+        buildKeys = new BloomFilter(map.size());
+        for (Object key : map.keySet()) {
+            buildKeys.add((Field) key);
+        }
+        filteredScan.addRuntimeFilter(pred.getField2(), buildKeys);
+    }
+
+    /**
+     * @return true if a Bloom filter of the join keys is filtering child2
+     */
+    public boolean isProbeFiltered() {
+        return buildKeys != null;
+    }
+
     public void close() {
         super.close();
+        if (buildKeys != null)
+            filteredScan.removeRuntimeFilter(buildKeys);
+        filteredScan = null;
+        buildKeys = null;
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        if (memory != null) {
+            memory.releaseAll();
+            memory = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -117,6 +199,8 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() {
         t1 = listIt.next();
+        if (lateMaterialization)
+            return new JoinedTuple(comboTD, t1, t2);
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
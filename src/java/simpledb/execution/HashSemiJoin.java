@@ -0,0 +1,203 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The semi-join and anti-join operators, for IN and EXISTS subqueries and
+ * their negations: the tuples of child1 that have a match in child2 (or, for
+ * an anti-join, that have none), each returned once and unchanged, however
+ * many matches it has.
+ * <p>
+ * The distinct join keys of child2 are loaded into an
+ * {@link AggregateHashTable} without aggregates, and each tuple of child1 is
+ * decided by one lookup, so probing stops at the first match. For a
+ * semi-join, a {@link BloomFilter} of the keys is also pushed down to the
+ * {@link SeqScan} child1 reads from, like {@link HashEquiJoin} does.
+ * <p>
+ * Without a join predicate (an uncorrelated EXISTS), every tuple of child1
+ * matches if child2 has any tuple, of which only the first one is read.
+ */
+public class HashSemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final boolean anti;
+    private OpIterator child1, child2;
+
+    // the keys of child2, in the table matching their type
+    transient private IntAggregateHashTable intKeys;
+    transient private StringAggregateHashTable stringKeys;
+    // whether child2 has a tuple, when there is no predicate
+    transient private boolean innerNonEmpty;
+    // the scan under child1 filtered on the keys, if any
+    transient private SeqScan filteredScan;
+    transient private BloomFilter buildKeys;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            the predicate matching tuples of child1 with tuples of
+     *            child2, which must be an equality of fields of the same
+     *            type; null if every tuple of child2 matches
+     * @param child1
+     *            the tuples to return
+     * @param child2
+     *            the tuples to match them with
+     * @param anti
+     *            true to return the tuples of child1 without a match,
+     *            false to return those with one
+     */
+    public HashSemiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, boolean anti) {
+        if (p != null) {
+            if (p.getOperator() != Predicate.Op.EQUALS)
+                throw new IllegalArgumentException("semi-joins are only computed on equality");
+            Type type = child1.getTupleDesc().getFieldType(p.getField1());
+            if (type != child2.getTupleDesc().getFieldType(p.getField2()))
+                throw new IllegalArgumentException("can't match " + type + " with "
+                        + child2.getTupleDesc().getFieldType(p.getField2()));
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    /**
+     * @return the join predicate, or null if there is none
+     */
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return true if this returns the tuples of child1 without a match
+     */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child2.open();
+        loadKeys();
+        // before opening child1: a Filter reads its child when opened
+        if (!anti && pred != null)
+            pushDownKeys();
+        child1.open();
+        super.open();
+    }
+
+    private void loadKeys() throws DbException, TransactionAbortedException {
+        if (pred == null) {
+            innerNonEmpty = child2.hasNext();
+            return;
+        }
+        Aggregator.Op[] none = new Aggregator.Op[0];
+        int f2 = pred.getField2();
+        if (child2.getTupleDesc().getFieldType(f2) == Type.STRING_TYPE) {
+            stringKeys = new StringAggregateHashTable(none);
+            while (child2.hasNext())
+                stringKeys.findOrInsert(((StringField) child2.next().getField(f2)).getValue());
+        } else {
+            intKeys = new IntAggregateHashTable(none);
+            while (child2.hasNext())
+                intKeys.findOrInsert(((IntField) child2.next().getField(f2)).getValue());
+        }
+    }
+
+    /**
+     * Filter the scan under child1 on the keys of child2.
+     */
+    private void pushDownKeys() {
+        OpIterator it = child1;
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (!(it instanceof SeqScan))
+            return;
+        filteredScan = (SeqScan) it;
+        int n = intKeys != null ? intKeys.size() : stringKeys.size();
+        buildKeys = new BloomFilter(n);
+        for (int g = 0; g < n; g++) {
+            Field key = intKeys != null ? new IntField(intKeys.key(g))
+                    : new StringField(stringKeys.key(g), Type.STRING_LEN);
+            buildKeys.add(key);
+        }
+        filteredScan.addRuntimeFilter(pred.getField1(), buildKeys);
+    }
+
+    /**
+     * @return true if a Bloom filter of the keys of child2 is filtering
+     *         child1
+     */
+    public boolean isProbeFiltered() {
+        return buildKeys != null;
+    }
+
+    public void close() {
+        super.close();
+        if (buildKeys != null)
+            filteredScan.removeRuntimeFilter(buildKeys);
+        filteredScan = null;
+        buildKeys = null;
+        intKeys = null;
+        stringKeys = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the keys of child2 are kept
+        child1.rewind();
+    }
+
+    /**
+     * @return true if t, a tuple of child1, has a match in child2
+     */
+    private boolean matches(Tuple t) {
+        if (pred == null)
+            return innerNonEmpty;
+        Field f = t.getField(pred.getField1());
+        if (intKeys != null)
+            return intKeys.lookup(((IntField) f).getValue(), false) >= 0;
+        return stringKeys.lookup(((StringField) f).getValue(), false) >= 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        // without a predicate, all of child1 is returned or none of it
+        if (pred == null && innerNonEmpty == anti)
+            return null;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -0,0 +1,289 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.JoinedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator joins an outer relation against a table
+ * stored in a {@link BTreeFile} keyed on the inner join field. Instead of
+ * scanning the inner table, each outer tuple probes the B+ tree with an
+ * {@link IndexPredicate} through {@link BTreeFile#indexIterator}.
+ * <p>
+ * Outer tuples are read in batches and sorted on the join field before
+ * probing, so consecutive probes walk down to the same or adjacent leaf pages
+ * (which are then still in the buffer pool), and an equality probe is shared
+ * by all outer tuples with the same key.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of outer tuples sorted and probed together. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final int batchSize;
+    private boolean lateMaterialization = false;
+
+    transient private TupleDesc comboTD;
+    transient private Tuple[] batch;
+    transient private int batchCount = 0;
+    transient private int batchPos = 0;
+    transient private Tuple outer = null;
+    transient private Field probedKey = null;
+    transient private List<Tuple> matches = null;
+    transient private int matchPos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *               The predicate to use to join the children
+     * @param child1
+     *               Iterator for the left(outer) relation to join
+     * @param child2
+     *               Scan of the right(inner) relation. It must scan a
+     *               BTreeFile keyed on field2 of the predicate; it is only used
+     *               to name the inner table and is never opened.
+     * @throws IllegalArgumentException
+     *               if the inner table has no usable index for p
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2) {
+        this(p, child1, child2, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *                  The predicate to use to join the children
+     * @param child1
+     *                  Iterator for the left(outer) relation to join
+     * @param child2
+     *                  Scan of the right(inner) relation
+     * @param batchSize
+     *                  The number of outer tuples to sort and probe together
+     * @see #IndexNestedLoopJoin(JoinPredicate, OpIterator, SeqScan)
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2, int batchSize) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("inner table has no index on the join field");
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batch must hold at least one tuple");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the operator to probe the index with, i.e. op with its operands
+     * swapped so that the index key is on the left, or null if op can't be
+     * answered by a B+ tree search.
+     */
+    public static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the table scanned by inner is a BTreeFile keyed on the
+     *         inner field of p, and the operator of p can be answered by it
+     */
+    public static boolean canProbe(JoinPredicate p, OpIterator inner) {
+        if (!(inner instanceof SeqScan) || probeOp(p.getOperator()) == null)
+            return false;
+        SeqScan scan = (SeqScan) inner;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        // the inner field is numbered among the fields the scan returns
+        return f instanceof BTreeFile
+                && ((BTreeFile) f).keyField() == scan.getColumns()[p.getField2()];
+    }
+
+    /**
+     * Choose whether joined tuples are copied into new tuples (the default),
+     * or returned as {@link JoinedTuple} views of the two tuples joined, so
+     * that fields are only copied by the operator consuming them.
+     */
+    public void setLateMaterialization(boolean late) {
+        this.lateMaterialization = late;
+    }
+
+    /**
+     * @return true if this join returns views rather than copies
+     * @see #setLateMaterialization(boolean)
+     */
+    public boolean isLateMaterialization() {
+        return lateMaterialization;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        comboTD = getTupleDesc();
+        batch = new Tuple[batchSize];
+        resetState();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        batch = null;
+        resetState();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        batchCount = 0;
+        batchPos = 0;
+        outer = null;
+        probedKey = null;
+        matches = null;
+        matchPos = 0;
+    }
+
+    /**
+     * Read the next batch of outer tuples and sort it on the join field.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        batchCount = 0;
+        batchPos = 0;
+        while (batchCount < batch.length && child1.hasNext()) {
+            batch[batchCount++] = child1.next();
+        }
+        Arrays.fill(batch, batchCount, batch.length, null);
+        final int f1 = p.getField1();
+        Arrays.sort(batch, 0, batchCount, (t1, t2) -> {
+            Field a = t1.getField(f1);
+            Field b = t2.getField(f1);
+            if (a.compare(Predicate.Op.LESS_THAN, b))
+                return -1;
+            return a.equals(b) ? 0 : 1;
+        });
+        return batchCount > 0;
+    }
+
+    /**
+     * Look up the inner tuples joining with key.
+     */
+    private List<Tuple> probe(Field key) throws DbException, TransactionAbortedException {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        IndexPredicate ipred = new IndexPredicate(probeOp(p.getOperator()), key);
+        DbFileIterator it = f.indexIterator(child2.getTransactionId(), ipred);
+        List<Tuple> result = new ArrayList<>();
+        it.open();
+        try {
+            while (it.hasNext()) {
+                result.add(child2.project(it.next()));
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        if (lateMaterialization)
+            return new JoinedTuple(comboTD, left, right);
+        Tuple res = new Tuple(comboTD);
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
+        for (int i = 0; i < td1n; i++) {
+            res.setField(i, left.getField(i));
+        }
+        for (int i = 0; i < td2n; i++) {
+            res.setField(td1n + i, right.getField(i));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Output tuples are the concatenation of the outer and inner
+     * tuples, as in {@link Join}, but are produced in the order of the outer
+     * join field within each batch.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && matchPos < matches.size()) {
+                return mergeTuples(outer, matches.get(matchPos++));
+            }
+
+            if (batchPos >= batchCount && !loadBatch()) {
+                return null;
+            }
+
+            outer = batch[batchPos++];
+            Field key = outer.getField(p.getField1());
+            // sorted batches put equal keys next to each other, so one
+            // equality probe serves all of them
+            if (matches == null || p.getOperator() != Predicate.Op.EQUALS
+                    || !key.equals(probedKey)) {
+                matches = probe(key);
+                probedKey = key;
+            }
+            matchPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = (SeqScan) children[1];
+    }
+
+}
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
@@ -15,10 +17,18 @@ import simpledb.transaction.TransactionId;
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
+ * <p>
+ * Tuples are inserted {@link #BATCH_SIZE} at a time through
+ * {@link BufferPool#insertTuples}, so that the table fills each page it
+ * modifies at once.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Number of child tuples inserted together. */
+    public static final int BATCH_SIZE = 4096;
+
     private TransactionId tid;
     private OpIterator child;
     private int tableId;
@@ -95,14 +105,18 @@ public class Insert extends Operator {
             return result;
         }
         int count = 0;
+        List<Tuple> batch = new ArrayList<>();
         while (child.hasNext()) {
-            Tuple t = child.next();
-            try {
-                bp.insertTuple(tid, tableId, t);
-            } catch (IOException e) {
-                e.printStackTrace();
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    bp.insertTuples(tid, tableId, batch.iterator());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                count += batch.size();
+                batch.clear();
             }
-            count++;
         }
         result.setField(0, new IntField(count));
         fetched = true;
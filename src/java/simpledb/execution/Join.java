@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.JoinedTuple;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,17 +11,31 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Tuples are joined with a block nested-loops algorithm: a block of outer
+ * tuples (a configurable number of pages worth) is buffered in memory, and the
+ * inner relation is scanned once per block rather than once per outer tuple.
+ * This is the join used for predicates that {@link HashEquiJoin} can't handle.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of pages of outer tuples buffered per inner pass. */
+    public static final int DEFAULT_BLOCK_PAGES = 10;
+
     private JoinPredicate p;
+    transient private PredicateCompiler.TuplePairFilter compiled;
     private OpIterator child1;
     private OpIterator child2;
+    private final int blockPages;
+    private boolean lateMaterialization = false;
 
-    private Tuple resultLeft = null;
-    private Tuple resultRight = null;
+    transient private TupleDesc comboTD;
+    transient private Tuple[] block;
+    transient private int blockSize = 0;
+    transient private int blockPos = 0;
+    transient private Tuple inner = null;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -33,10 +49,31 @@ public class Join extends Operator {
      *               Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the size of the outer block.
+     * 
+     * @param p
+     *                   The predicate to use to join the children
+     * @param child1
+     *                   Iterator for the left(outer) relation to join
+     * @param child2
+     *                   Iterator for the right(inner) relation to join
+     * @param blockPages
+     *                   The number of pages of outer tuples to buffer for each
+     *                   scan of the inner relation
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
         // some code goes here
+        if (blockPages <= 0)
+            throw new IllegalArgumentException("block must hold at least one page");
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
     }
 
     public JoinPredicate getP() {
@@ -73,12 +110,50 @@ public class Join extends Operator {
         return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Choose whether joined tuples are copied into new tuples (the default),
+     * or returned as {@link JoinedTuple} views of the two tuples joined, so
+     * that fields are only copied by the operator consuming them.
+     */
+    public void setLateMaterialization(boolean late) {
+        this.lateMaterialization = late;
+    }
+
+    /**
+     * @return true if this join returns views rather than copies
+     * @see #setLateMaterialization(boolean)
+     */
+    public boolean isLateMaterialization() {
+        return lateMaterialization;
+    }
+
+    /**
+     * @return the number of pages of outer tuples buffered per inner pass
+     */
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    /**
+     * @return the number of outer tuples that fit in one block
+     */
+    int blockCapacity() {
+        int tupleSize = Math.max(1, child1.getTupleDesc().getSize());
+        return blockPages * Math.max(1, BufferPool.getPageSize() / tupleSize);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        super.open();
         this.child1.open();
         this.child2.open();
+        comboTD = getTupleDesc();
+        compiled = PredicateCompiler.compile(p, child1.getTupleDesc().getFieldType(p.getField1()));
+        block = new Tuple[blockCapacity()];
+        blockSize = 0;
+        blockPos = 0;
+        inner = null;
+        super.open();
     }
 
     public void close() {
@@ -86,13 +161,47 @@ public class Join extends Operator {
         super.close();
         this.child1.close();
         this.child2.close();
+        block = null;
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        super.open();
         child1.rewind();
         child2.rewind();
+        blockSize = 0;
+        blockPos = 0;
+        inner = null;
+    }
+
+    /**
+     * Fill the block buffer with the next run of outer tuples.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        blockSize = 0;
+        while (blockSize < block.length && child1.hasNext()) {
+            block[blockSize++] = child1.next();
+        }
+        // drop references to tuples from the previous block
+        Arrays.fill(block, blockSize, block.length, null);
+        return blockSize > 0;
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        if (lateMaterialization)
+            return new JoinedTuple(comboTD, left, right);
+        Tuple res = new Tuple(comboTD);
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
+        for (int i = 0; i < td1n; i++) {
+            res.setField(i, left.getField(i));
+        }
+        for (int i = 0; i < td2n; i++) {
+            res.setField(td1n + i, right.getField(i));
+        }
+        return res;
     }
 
     /**
@@ -115,38 +224,29 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (resultLeft == null) {
-            if (child1.hasNext()) {
-                resultLeft = child1.next();
-            } else {
-                return null;
+        while (true) {
+            // compare the current inner tuple with the rest of the block
+            if (inner != null) {
+                while (blockPos < blockSize) {
+                    Tuple outer = block[blockPos++];
+                    if (compiled.test(outer, inner)) {
+                        return mergeTuples(outer, inner);
+                    }
+                }
+                inner = null;
             }
-        }
 
-        if (resultRight == null) {
-            if (child2.hasNext()) {
-                resultRight = child2.next();
-            } else {
-                resultLeft = null;
-                child2.rewind();
-                return fetchNext();
+            if (blockSize > 0 && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
             }
-        }
 
-        if (p.filter(resultLeft, resultRight)) {
-            Tuple res = new Tuple(TupleDesc.merge(resultLeft.getTupleDesc(), resultRight.getTupleDesc()));
-            int index = 0;
-            for (; index < resultLeft.getTupleDesc().numFields(); index++) {
-                res.setField(index, resultLeft.getField(index));
-            }
-            for (int i = 0; i < resultRight.getTupleDesc().numFields(); i++, index++) {
-                res.setField(index, resultRight.getField(i));
+            // inner relation is done with this block: advance to the next one
+            if (!loadBlock()) {
+                return null;
             }
-            resultRight = null;
-            return res;
-        } else {
-            resultRight = null;
-            return fetchNext();
+            child2.rewind();
         }
     }
 
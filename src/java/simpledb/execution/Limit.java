@@ -0,0 +1,109 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements a relational LIMIT ... OFFSET. It
+ * skips the first offset tuples of its child, returns at most limit of the
+ * following ones, and stops pulling from the child as soon as the limit is
+ * reached.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Value of limit meaning that all tuples after the offset are returned. */
+    public static final int NO_LIMIT = -1;
+
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+
+    transient private int skipped = 0;
+    transient private int returned = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return, or NO_LIMIT
+     * @param offset
+     *            the number of leading tuples to skip
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 && limit != NO_LIMIT)
+            throw new IllegalArgumentException("limit must be non-negative");
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must be non-negative");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        skipped = 0;
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        skipped = 0;
+        returned = 0;
+    }
+
+    /**
+     * Returns the next tuple within the limit, or null once the limit has been
+     * reached or the child is exhausted.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (limit != NO_LIMIT && returned >= limit)
+            return null;
+        while (skipped < offset && child.hasNext()) {
+            child.next();
+            skipped++;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,95 @@
+package simpledb.execution;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A MemoryManager divides the memory the operators of running queries may
+ * buffer tuples in between the queries.
+ * <p>
+ * Each {@link Query} opens a {@link QueryMemory} when it starts, which its
+ * operators reserve from, a page or more at a time. A reservation is granted
+ * while the pool has room and the query stays within its fair share: the
+ * capacity divided by the number of running queries. A query that already
+ * holds more than its share when others start keeps what it has, but gets
+ * no more until it is back under its share, so a large query can't starve
+ * those that start after it.
+ * <p>
+ * When a reservation is refused, operators that can spill to disk do so, and
+ * the others fail with a {@link simpledb.common.DbException}; see
+ * {@link OperatorMemory}.
+ *
+ * @Threadsafe
+ */
+public class MemoryManager {
+
+    /** Default number of bytes the operators of all queries may hold. */
+    public static final long DEFAULT_CAPACITY = Runtime.getRuntime().maxMemory() / 4;
+
+    private final long capacity;
+    private long used = 0;
+    private final Set<QueryMemory> running = new HashSet<>();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of bytes to divide between queries
+     */
+    public MemoryManager(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of bytes reserved by running queries */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /** @return the number of running queries */
+    public synchronized int getRunningQueries() {
+        return running.size();
+    }
+
+    /**
+     * Start accounting for the memory of a new query.
+     *
+     * @return the memory of the query, to be closed when it is done
+     */
+    public synchronized QueryMemory open() {
+        QueryMemory q = new QueryMemory(this);
+        running.add(q);
+        return q;
+    }
+
+    synchronized boolean grant(QueryMemory q, long bytes) {
+        if (!running.contains(q))
+            return false;
+        long share = capacity / running.size();
+        if (q.granted + bytes > share || used + bytes > capacity)
+            return false;
+        q.granted += bytes;
+        q.peak = Math.max(q.peak, q.granted);
+        used += bytes;
+        return true;
+    }
+
+    synchronized void release(QueryMemory q, long bytes) {
+        if (!running.contains(q))
+            return;
+        bytes = Math.min(bytes, q.granted);
+        q.granted -= bytes;
+        used -= bytes;
+    }
+
+    synchronized void close(QueryMemory q) {
+        if (running.remove(q)) {
+            used -= q.granted;
+            q.granted = 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+
+/**
+ * Knows how to compute several aggregates at once over groups keyed on any
+ * number of fields.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Aggregator inner;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields     the 0-based indexes of the group-by fields in the
+     *                     tuple; empty if there is no grouping
+     * @param gbfieldtypes the type of each group-by field
+     * @param afields      the 0-based index of the field of each aggregate
+     * @param afieldtypes  the type of each aggregate field
+     * @param whats        the operator of each aggregate; one of MIN, MAX,
+     *                     SUM, AVG and COUNT over ints, COUNT over strings
+     * @param maxGroups    the maximum number of groups to keep in memory
+     *                     before spilling the tuples of further groups to disk
+     * @throws IllegalArgumentException if an aggregate over a string isn't a
+     *                                  COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes,
+            Op[] whats, int maxGroups) {
+        if (afieldtypes.length != afields.length)
+            throw new IllegalArgumentException("need one type per aggregate field");
+        boolean[] intValues = new boolean[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            intValues[a] = afieldtypes[a] == Type.INT_TYPE;
+            if (!intValues[a] && whats[a] != Op.COUNT)
+                throw new IllegalArgumentException("only COUNT is supported over strings");
+        }
+        inner = new HashAggregator(gbfields, gbfieldtypes, afields, whats, intValues, maxGroups, 0);
+    }
+
+    /**
+     * Aggregate constructor that keeps all groups in memory.
+     *
+     * @see #MultiAggregator(int[], Type[], int[], Type[], Op[], int)
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes,
+            Op[] whats) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, whats, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group.
+     *
+     * @param tup the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        inner.mergeTupleIntoGroup(tup);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by fields followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor
+     */
+    public OpIterator iterator() {
+        return inner.iterator();
+    }
+
+    @Override
+    public void setMemory(OperatorMemory memory) {
+        inner.setMemory(memory);
+    }
+
+}
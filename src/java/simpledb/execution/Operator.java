@@ -62,6 +62,7 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    transient private QueryMemory queryMemory = QueryMemory.UNBOUNDED;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
@@ -92,6 +93,23 @@ public abstract class Operator implements OpIterator {
      * */
     public abstract TupleDesc getTupleDesc();
 
+    /**
+     * @return the memory of the query this operator runs in, which operators
+     *         that buffer tuples reserve from; unbounded unless the operator
+     *         runs as part of a {@link Query}
+     */
+    public QueryMemory getQueryMemory() {
+        return queryMemory;
+    }
+
+    /**
+     * @param memory the memory of the query this operator runs in
+     * @see QueryMemory#attach
+     */
+    public void setQueryMemory(QueryMemory memory) {
+        this.queryMemory = memory;
+    }
+
     /**
      * @return The estimated cardinality of this operator. Will only be used in
      *         lab7
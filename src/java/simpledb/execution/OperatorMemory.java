@@ -0,0 +1,92 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+
+/**
+ * The memory one operator holds tuples, keys or groups in, reserved from
+ * the {@link QueryMemory} of its query as it grows, a page at a time, and
+ * sized with {@link simpledb.storage.TupleDesc#getSize()}.
+ * <p>
+ * Operators follow the same policy when a reservation is refused: those
+ * that can spill, like {@link OrderBy}, {@link HashEquiJoin},
+ * {@link Distinct} and the aggregators, keep what they already hold and
+ * spill or process the rest in another pass; those that can't fail with
+ * {@link #reserve}. The first page of every account is free, so that an
+ * operator that spills always makes progress, even when its query has no
+ * memory left.
+ * <p>
+ * An account is used by one thread at a time.
+ */
+public class OperatorMemory {
+
+    private final QueryMemory query;
+    // bytes in use, and bytes reserved from the query beyond the free page
+    private long used = 0;
+    private long reserved = 0;
+
+    OperatorMemory(QueryMemory query) {
+        this.query = query;
+    }
+
+    /** @return the memory of the query this account reserves from */
+    public QueryMemory getQueryMemory() {
+        return query;
+    }
+
+    /** @return the number of bytes in use */
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * Reserve memory, if the query has room for it.
+     *
+     * @param bytes the number of bytes to add to those in use
+     * @return false if the query has no room, in which case nothing is
+     *         reserved
+     */
+    public boolean tryReserve(long bytes) {
+        long needed = used + bytes - BufferPool.getPageSize() - reserved;
+        if (needed > 0) {
+            long chunk = Math.max(needed, BufferPool.getPageSize());
+            if (!query.grant(chunk))
+                return false;
+            reserved += chunk;
+        }
+        used += bytes;
+        return true;
+    }
+
+    /**
+     * Reserve memory that the operator can't do without.
+     *
+     * @param bytes the number of bytes to add to those in use
+     * @param what  what the memory is for, to report if it isn't available
+     * @throws DbException if the query has no room
+     */
+    public void reserve(long bytes, String what) throws DbException {
+        if (!tryReserve(bytes))
+            throw new DbException("query out of memory: no room for " + bytes
+                    + " more bytes of " + what + " after " + used);
+    }
+
+    /**
+     * Release memory no longer in use, returning whole pages to the query.
+     *
+     * @param bytes the number of bytes to subtract from those in use
+     */
+    public void release(long bytes) {
+        used = Math.max(0, used - bytes);
+        long keep = Math.max(0, used - BufferPool.getPageSize());
+        if (reserved > keep) {
+            query.release(reserved - keep);
+            reserved = keep;
+        }
+    }
+
+    /** Release all the memory in use. */
+    public void releaseAll() {
+        release(used);
+    }
+}
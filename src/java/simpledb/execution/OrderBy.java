@@ -1,5 +1,7 @@
 package simpledb.execution;
 
+import simpledb.storage.BufferPool;
+import simpledb.storage.TupleSpillFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Field;
@@ -9,18 +11,41 @@ import simpledb.storage.TupleDesc;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or more
+ * fields, each ascending or descending.
+ * <p>
+ * Tuples are sorted on normalized byte keys built by a
+ * {@link SortKeyEncoder}, computed once per tuple as it is read.
+ * <p>
+ * Inputs that fit in the operator's memory budget are sorted in memory.
+ * Larger inputs are sorted with an external merge sort: the child is cut into
+ * sorted runs of at most the budget, or of what the query can spare from its
+ * {@link QueryMemory} if that is less, each written to a {@link TupleSpillFile},
+ * and the runs are merged with a heap, several at a time, until they can all
+ * be merged at once. The final merge is streamed lazily to the parent.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of pages worth of tuples sorted in memory. */
+    public static final int DEFAULT_MEMORY_PAGES = 100;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final boolean[] asc;
+    private final int memoryPages;
+    private final SortKeyEncoder encoder;
+
+    // the sorted input, if it fit in memory
+    transient private List<Tuple> childTups;
+    transient private Iterator<Tuple> it;
+    // the sorted runs, if it didn't
+    transient private List<TupleSpillFile> runs;
+    transient private RunMerger merger;
+    transient private OperatorMemory memory;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,50 +58,227 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages worth of tuples to hold in memory; this
+     *            is the size of a sorted run, and one less than the number of
+     *            runs merged at once.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int memoryPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryPages);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages worth of tuples to hold in memory
+     * @see #OrderBy(int, boolean, OpIterator, int)
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per sort field");
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("sort needs at least one page of memory");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.memoryPages = memoryPages;
+        this.encoder = new SortKeyEncoder(td, orderbyFields, asc);
     }
     
+    /** @return true if the first sort field is in ascending order */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /** @return the first sort field */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return asc.clone();
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return the number of tuples sorted in memory at once
+     */
+    private int runCapacity() {
+        int tuplesPerPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        return memoryPages * tuplesPerPage;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        runs = new ArrayList<>();
+        memory = getQueryMemory().operatorMemory();
+        int capacity = runCapacity();
+        List<KeyedTuple> buffer = new ArrayList<>();
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (buffer.size() >= capacity || !memory.tryReserve(td.getSize())) {
+                if (!buffer.isEmpty()) {
+                    runs.add(writeRun(buffer));
+                    buffer.clear();
+                }
+                memory.releaseAll();
+                // always granted, from the operator's first page
+                memory.tryReserve(td.getSize());
+            }
+            buffer.add(new KeyedTuple(encoder.encode(t), t));
+        }
+
+        if (runs.isEmpty()) {
+            buffer.sort(KeyedTuple.ORDER);
+            childTups = new ArrayList<>(buffer.size());
+            for (KeyedTuple kt : buffer) {
+                childTups.add(kt.tuple);
+            }
+            it = childTups.iterator();
+        } else {
+            if (!buffer.isEmpty())
+                runs.add(writeRun(buffer));
+            buffer = null;
+            memory.releaseAll();
+            int fanIn = Math.max(2, memoryPages - 1);
+            while (runs.size() > fanIn) {
+                runs = mergePass(runs, fanIn);
+            }
+            merger = new RunMerger(runs, encoder);
+        }
         super.open();
     }
 
+    /**
+     * Sort the buffered tuples and write them out as a new run.
+     */
+    private TupleSpillFile writeRun(List<KeyedTuple> buffer) throws DbException {
+        buffer.sort(KeyedTuple.ORDER);
+        TupleSpillFile run = new TupleSpillFile(td);
+        for (KeyedTuple kt : buffer) {
+            run.add(kt.tuple);
+        }
+        run.finish();
+        return run;
+    }
+
+    /**
+     * Merge every fanIn consecutive runs into one, deleting the inputs.
+     *
+     * @return the merged runs, in the same order
+     */
+    private List<TupleSpillFile> mergePass(List<TupleSpillFile> in, int fanIn)
+            throws DbException {
+        List<TupleSpillFile> out = new ArrayList<>();
+        for (int i = 0; i < in.size(); i += fanIn) {
+            List<TupleSpillFile> group = in.subList(i, Math.min(in.size(), i + fanIn));
+            TupleSpillFile merged = new TupleSpillFile(td);
+            RunMerger m = new RunMerger(group, encoder);
+            try {
+                Tuple t;
+                while ((t = m.next()) != null) {
+                    merged.add(t);
+                }
+            } finally {
+                m.close();
+            }
+            merged.finish();
+            for (TupleSpillFile run : group) {
+                run.delete();
+            }
+            out.add(merged);
+        }
+        return out;
+    }
+
     public void close() {
         super.close();
+        child.close();
+        releaseRuns();
+        childTups = null;
         it = null;
+        if (memory != null) {
+            memory.releaseAll();
+            memory = null;
+        }
+    }
+
+    private void releaseRuns() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            for (TupleSpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (childTups != null) {
+            it = childTups.iterator();
+        } else if (runs != null) {
+            merger.close();
+            merger = new RunMerger(runs, encoder);
+        }
     }
 
     /**
@@ -86,7 +288,9 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merger != null)
+            return merger.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -103,26 +307,113 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /** A tuple and its sort key. */
+    private static class KeyedTuple {
+        static final Comparator<KeyedTuple> ORDER =
+                (kt1, kt2) -> SortKeyEncoder.compare(kt1.key, kt2.key);
+
+        final byte[] key;
+        final Tuple tuple;
+
+        KeyedTuple(byte[] key, Tuple tuple) {
+            this.key = key;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs. Ties are broken by run order, so merging
+     * runs cut from the input in order keeps the sort stable.
+     */
+    private static class RunMerger {
+        private final TupleSpillFile.Reader[] readers;
+        private final PriorityQueue<RunHead> heap;
+        private final SortKeyEncoder encoder;
+
+        private static class RunHead {
+            final byte[] key;
+            final Tuple tuple;
+            final int run;
+
+            RunHead(byte[] key, Tuple tuple, int run) {
+                this.key = key;
+                this.tuple = tuple;
+                this.run = run;
+            }
+        }
+
+        RunMerger(List<TupleSpillFile> runs, SortKeyEncoder encoder)
+                throws DbException {
+            this.encoder = encoder;
+            readers = new TupleSpillFile.Reader[runs.size()];
+            heap = new PriorityQueue<>(Math.max(1, runs.size()), (h1, h2) -> {
+                int c = SortKeyEncoder.compare(h1.key, h2.key);
+                return c != 0 ? c : Integer.compare(h1.run, h2.run);
+            });
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = runs.get(i).reader();
+                advance(i);
+            }
+        }
+
+        private void advance(int run) throws DbException {
+            Tuple t = readers[run].next();
+            if (t != null)
+                heap.add(new RunHead(encoder.encode(t), t, run));
+        }
+
+        /**
+         * @return the smallest remaining tuple, or null if all runs are
+         *         exhausted
+         */
+        Tuple next() throws DbException {
+            RunHead h = heap.poll();
+            if (h == null)
+                return null;
+            advance(h.run);
+            return h.tuple;
+        }
+
+        void close() {
+            for (TupleSpillFile.Reader r : readers) {
+                if (r != null)
+                    r.close();
+            }
+            heap.clear();
+        }
+    }
+
 }
 
+/**
+ * Compares tuples field by field with {@link Field#compare}; this is the
+ * comparison that {@link SortKeyEncoder} keys reproduce.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc[i] ? 1 : -1;
+            else
+                return asc[i] ? -1 : 1;
+        }
+        return 0;
     }
     
 }
@@ -0,0 +1,189 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link Aggregate} over a whole table that reads the table on several
+ * threads.
+ * <p>
+ * Aggregation happens in two phases. First, each worker repeatedly claims
+ * the next {@link #MORSEL_PAGES} pages of the table and pre-aggregates their
+ * tuples into its own aggregator, so workers never share a hash table. Then
+ * the partial aggregates are merged: MIN, MAX, SUM and COUNT by applying the
+ * aggregate to the partial results, and AVG by adding up the sums and counts
+ * the partial averages are made of. The result is the same as that of
+ * Aggregate over the table, in a possibly different order.
+ * <p>
+ * Unlike Aggregate, all groups are held in memory. Tables that aren't
+ * {@link HeapFile}s are aggregated on the calling thread.
+ */
+public class ParallelAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of consecutive pages a worker aggregates at a time. */
+    public static final int MORSEL_PAGES = 8;
+
+    /** The minimum size of a table for the planner to aggregate it in parallel. */
+    public static final int MIN_PAGES = 4 * MORSEL_PAGES;
+
+    /** Default number of worker threads: one per available processor. */
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    private final int workers;
+
+    /**
+     * Constructor using {@link #DEFAULT_WORKERS} threads.
+     *
+     * @see #ParallelAggregate(SeqScan, int, int, Aggregator.Op, int)
+     */
+    public ParallelAggregate(SeqScan child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child   The scan of the table to aggregate.
+     * @param afield  The column over which we are computing an aggregate.
+     * @param gfield  The column over which we are grouping the result, or -1
+     *                if there is no grouping
+     * @param aop     The aggregation operator to use
+     * @param workers The number of threads reading the table
+     */
+    public ParallelAggregate(SeqScan child, int afield, int gfield, Aggregator.Op aop, int workers) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop }, workers);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups.
+     *
+     * @param child   The scan of the table to aggregate.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The operator of each aggregate
+     * @param workers The number of threads reading the table
+     */
+    public ParallelAggregate(SeqScan child, int[] afields, int[] gfields, Aggregator.Op[] aops, int workers) {
+        super(child, afields, gfields, aops);
+        if (workers < 1)
+            throw new IllegalArgumentException("need at least one worker");
+        this.workers = workers;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    private SeqScan scan() {
+        return (SeqScan) getChildren()[0];
+    }
+
+    private HashAggregator newPartial() {
+        TupleDesc td = scan().getTupleDesc();
+        int[] gfields = groupFields();
+        Type[] gfieldTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gfieldTypes[i] = td.getFieldType(gfields[i]);
+        }
+        int[] afields = aggregateFields();
+        boolean[] intValues = new boolean[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            intValues[a] = td.getFieldType(afields[a]) == Type.INT_TYPE;
+        }
+        return new HashAggregator(gfields, gfieldTypes, afields, aggregateOps(), intValues,
+                Integer.MAX_VALUE, 0);
+    }
+
+    @Override
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(scan().getTableId());
+        if (workers == 1 || !(file instanceof HeapFile))
+            return super.aggregate();
+
+        final HeapFile table = (HeapFile) file;
+        final TransactionId tid = scan().getTransactionId();
+        final int numPages = table.numPages();
+        final int[] columns = scan().isProjected() ? scan().getColumns() : null;
+        final AtomicInteger nextPage = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<HashAggregator>> partials = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                final HashAggregator partial = newPartial();
+                partials.add(pool.submit(() -> {
+                    int from;
+                    while ((from = nextPage.getAndAdd(MORSEL_PAGES)) < numPages) {
+                        DbFileIterator it = table.iterator(tid, from,
+                                Math.min(numPages, from + MORSEL_PAGES), columns);
+                        it.open();
+                        try {
+                            while (it.hasNext()) {
+                                partial.mergeTupleIntoGroup(it.next());
+                            }
+                        } finally {
+                            it.close();
+                        }
+                    }
+                    return partial;
+                }));
+            }
+
+            HashAggregator result = null;
+            for (Future<HashAggregator> f : partials) {
+                HashAggregator partial = await(f);
+                if (result == null)
+                    result = partial;
+                else
+                    result.merge(partial);
+            }
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for a worker, rethrowing whatever made it fail.
+     */
+    private static HashAggregator await(Future<HashAggregator> f)
+            throws DbException, TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while aggregating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new DbException("aggregation worker failed: " + cause);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A PipelineStage runs its child on a thread of its own, which hands the
+ * child's tuples to the parent in batches through a bounded queue, so that
+ * the child reading pages overlaps with the parent joining, aggregating or
+ * sorting the tuples it already has.
+ * <p>
+ * The child runs ahead of the parent by at most {@code queueBatches}
+ * batches, and blocks while the queue is full. It is opened, rewound and
+ * closed on the parent's thread, while the stage's thread isn't running, so
+ * operators need not be thread safe to run in a stage. Errors of the child
+ * are rethrown to the parent, after the tuples handed off before them.
+ * <p>
+ * {@link #pipeline} puts a stage above each scan of a plan, possibly under
+ * filters, whose parent consumes its tuples as they are. The tuples of a
+ * stage are returned in the same order as those of its child, so a plan
+ * returns the same results with or without stages.
+ */
+public class PipelineStage extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of tuples handed off at a time. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** Default number of batches the child may run ahead of the parent. */
+    public static final int DEFAULT_QUEUE_BATCHES = 8;
+
+    // marks the end of the child's tuples, or its failure
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private OpIterator child;
+    private final int batchSize;
+    private final int queueBatches;
+
+    transient private BlockingQueue<List<Tuple>> queue;
+    transient private Thread producer;
+    transient private volatile boolean cancelled;
+    transient private volatile Throwable failure;
+    transient private Iterator<Tuple> batch;
+    transient private boolean finished;
+
+    /**
+     * Constructor using batches of {@link #DEFAULT_BATCH_SIZE} tuples and a
+     * queue of {@link #DEFAULT_QUEUE_BATCHES} batches.
+     *
+     * @param child the operators to run on their own thread
+     */
+    public PipelineStage(OpIterator child) {
+        this(child, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child        the operators to run on their own thread
+     * @param batchSize    the number of tuples handed off at a time
+     * @param queueBatches the number of batches the child may run ahead of
+     *                     the parent
+     */
+    public PipelineStage(OpIterator child, int batchSize, int queueBatches) {
+        if (batchSize < 1 || queueBatches < 1)
+            throw new IllegalArgumentException("batch size and queue length must be positive");
+        this.child = child;
+        this.batchSize = batchSize;
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+     * Run the scans of a plan in stages: put a PipelineStage above each
+     * {@link SeqScan}, with the {@link Filter}s above it, unless its parent
+     * looks through its child for the scan, to push predicates or join keys
+     * down into it, or to read its table directly.
+     *
+     * @param plan the plan to run in stages
+     * @return the plan, with stages under its operators
+     */
+    public static OpIterator pipeline(OpIterator plan) {
+        if (!(plan instanceof Operator) || plan instanceof PipelineStage)
+            return plan;
+        Operator op = (Operator) plan;
+        OpIterator[] children = op.getChildren();
+        if (children == null)
+            return plan;
+        OpIterator[] staged = new OpIterator[children.length];
+        for (int i = 0; i < children.length; i++) {
+            if (isScan(children[i]) && !ProfiledOperator.inspectsChild(op, i))
+                staged[i] = new PipelineStage(children[i]);
+            else
+                staged[i] = pipeline(children[i]);
+        }
+        op.setChildren(staged);
+        return plan;
+    }
+
+    /**
+     * @return true if it is a SeqScan, possibly under filters
+     */
+    private static boolean isScan(OpIterator it) {
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        return it instanceof SeqScan;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQueueBatches() {
+        return queueBatches;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        startProducer();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stopProducer();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopProducer();
+        child.rewind();
+        startProducer();
+    }
+
+    private void startProducer() {
+        queue = new ArrayBlockingQueue<>(queueBatches);
+        cancelled = false;
+        failure = null;
+        batch = null;
+        finished = false;
+        final BlockingQueue<List<Tuple>> handoff = queue;
+        producer = new Thread(() -> produce(handoff), "simpledb-pipeline-" + threads.incrementAndGet());
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Read the child on the stage's thread, until it is exhausted or the
+     * stage is stopped.
+     */
+    private void produce(BlockingQueue<List<Tuple>> handoff) {
+        List<Tuple> tuples = new ArrayList<>(batchSize);
+        try {
+            while (!cancelled && child.hasNext()) {
+                tuples.add(child.next());
+                if (tuples.size() == batchSize) {
+                    handoff.put(tuples);
+                    tuples = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+        if (cancelled) {
+            // nobody is waiting; the queue may be full
+            handoff.offer(END);
+            return;
+        }
+        try {
+            // the tuples read before the end, or before the failure
+            if (!tuples.isEmpty() && !(failure instanceof InterruptedException))
+                handoff.put(tuples);
+            handoff.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the stage's thread and wait for it, after which the child may be
+     * used on the calling thread.
+     */
+    private void stopProducer() {
+        if (producer == null)
+            return;
+        cancelled = true;
+        // make room for a batch being handed off, which is the last one
+        queue.clear();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                producer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        producer = null;
+        queue = null;
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (finished || queue == null)
+                return null;
+            List<Tuple> next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for tuples");
+            }
+            if (next == END) {
+                finished = true;
+                rethrowFailure();
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    /**
+     * Rethrow whatever made the child fail, if it did.
+     */
+    private void rethrowFailure() throws DbException, TransactionAbortedException {
+        Throwable cause = failure;
+        if (cause == null)
+            return;
+        if (cause instanceof DbException)
+            throw (DbException) cause;
+        if (cause instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        throw new DbException("pipeline stage failed: " + cause);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -0,0 +1,308 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Compiles {@link Predicate}s and {@link JoinPredicate}s into lambdas
+ * specialized for the type and operator of the comparison.
+ * <p>
+ * {@link Predicate#filter} looks up the field, dispatches on its class to
+ * {@link simpledb.storage.Field#compare}, and switches on the operator, for
+ * every tuple. A compiled predicate makes these choices once: the operator
+ * selects the lambda, the operand is unboxed into a captured constant, and
+ * the field is read with a typed accessor of {@link Tuple}. Conjunctions
+ * compile to a chain of such lambdas that stops at the first false one.
+ * <p>
+ * Compiled predicates agree with {@link Predicate#filter} and
+ * {@link JoinPredicate#filter}, including LIKE, which is equality on ints and
+ * substring search on strings.
+ * <p>
+ * A {@link SlotFilter} also tests records as serialized on a heap page,
+ * before they are decoded into tuples: ints are compared at their offset in
+ * the record, and strings are compared byte by byte for =, &lt;&gt; and LIKE
+ * on ASCII operands. Other comparisons decode only the compared field.
+ */
+public final class PredicateCompiler {
+
+    /** A compiled predicate over one tuple. */
+    @FunctionalInterface
+    public interface TupleFilter extends Serializable {
+        boolean test(Tuple t);
+    }
+
+    /** A compiled predicate over a pair of tuples. */
+    @FunctionalInterface
+    public interface TuplePairFilter extends Serializable {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    /** A compiled predicate over a record serialized in a byte array. */
+    @FunctionalInterface
+    private interface RecordFilter extends Serializable {
+        boolean test(byte[] data, int offset);
+    }
+
+    /**
+     * A conjunction of predicates over the fields of a table, tested either
+     * on tuples of the table or on their serialized records.
+     */
+    public static final class SlotFilter implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final TupleFilter tupleFilter;
+        private final RecordFilter recordFilter;
+
+        private SlotFilter(TupleFilter tupleFilter, RecordFilter recordFilter) {
+            this.tupleFilter = tupleFilter;
+            this.recordFilter = recordFilter;
+        }
+
+        /**
+         * @return true if t, a tuple of the table, passes the predicates
+         */
+        public boolean test(Tuple t) {
+            return tupleFilter.test(t);
+        }
+
+        /**
+         * @param data   bytes holding a record of the table
+         * @param offset the offset of the record in data
+         * @return true if the record passes the predicates
+         */
+        public boolean test(byte[] data, int offset) {
+            return recordFilter.test(data, offset);
+        }
+    }
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * @return a filter accepting the tuples p accepts
+     */
+    public static TupleFilter compile(Predicate p) {
+        int f = p.getField();
+        if (p.getOperand() instanceof IntField) {
+            int c = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return t -> t.getInt(f) == c;
+                case NOT_EQUALS:
+                    return t -> t.getInt(f) != c;
+                case GREATER_THAN:
+                    return t -> t.getInt(f) > c;
+                case GREATER_THAN_OR_EQ:
+                    return t -> t.getInt(f) >= c;
+                case LESS_THAN:
+                    return t -> t.getInt(f) < c;
+                case LESS_THAN_OR_EQ:
+                    return t -> t.getInt(f) <= c;
+            }
+        } else if (p.getOperand() instanceof StringField) {
+            String c = ((StringField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                    return t -> t.getString(f).equals(c);
+                case NOT_EQUALS:
+                    return t -> !t.getString(f).equals(c);
+                case GREATER_THAN:
+                    return t -> t.getString(f).compareTo(c) > 0;
+                case GREATER_THAN_OR_EQ:
+                    return t -> t.getString(f).compareTo(c) >= 0;
+                case LESS_THAN:
+                    return t -> t.getString(f).compareTo(c) < 0;
+                case LESS_THAN_OR_EQ:
+                    return t -> t.getString(f).compareTo(c) <= 0;
+                case LIKE:
+                    return t -> t.getString(f).contains(c);
+            }
+        }
+        // an operand type without a specialization
+        return p::filter;
+    }
+
+    /**
+     * @return a filter accepting the tuples all of conjuncts accept; tests
+     *         the conjuncts in order, and accepts everything if there are none
+     */
+    public static TupleFilter compile(List<Predicate> conjuncts) {
+        TupleFilter result = null;
+        for (int i = conjuncts.size() - 1; i >= 0; i--) {
+            TupleFilter first = compile(conjuncts.get(i));
+            TupleFilter rest = result;
+            result = rest == null ? first : t -> first.test(t) && rest.test(t);
+        }
+        return result == null ? t -> true : result;
+    }
+
+    /**
+     * @param conjuncts predicates over the fields of td
+     * @param td        the layout of the tuples and records to test
+     * @return a filter accepting the tuples and records all of conjuncts
+     *         accept
+     */
+    public static SlotFilter compile(List<Predicate> conjuncts, TupleDesc td) {
+        RecordFilter result = null;
+        for (int i = conjuncts.size() - 1; i >= 0; i--) {
+            RecordFilter first = compile(conjuncts.get(i), td);
+            RecordFilter rest = result;
+            result = rest == null ? first : (d, off) -> first.test(d, off) && rest.test(d, off);
+        }
+        return new SlotFilter(compile(conjuncts),
+                result == null ? (d, off) -> true : result);
+    }
+
+    private static RecordFilter compile(Predicate p, TupleDesc td) {
+        int f = p.getField();
+        int o = 0;
+        for (int i = 0; i < f; i++)
+            o += td.getFieldType(i).getLen();
+        final int fieldOffset = o;
+        Type type = td.getFieldType(f);
+        if (type == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+            int c = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return (d, off) -> readInt(d, off + fieldOffset) == c;
+                case NOT_EQUALS:
+                    return (d, off) -> readInt(d, off + fieldOffset) != c;
+                case GREATER_THAN:
+                    return (d, off) -> readInt(d, off + fieldOffset) > c;
+                case GREATER_THAN_OR_EQ:
+                    return (d, off) -> readInt(d, off + fieldOffset) >= c;
+                case LESS_THAN:
+                    return (d, off) -> readInt(d, off + fieldOffset) < c;
+                case LESS_THAN_OR_EQ:
+                    return (d, off) -> readInt(d, off + fieldOffset) <= c;
+            }
+        } else if (type == Type.STRING_TYPE && p.getOperand() instanceof StringField
+                && isAscii(((StringField) p.getOperand()).getValue())) {
+            // ASCII bytes decode to themselves, and other bytes never decode
+            // to ASCII, so these agree with the decoded strings
+            byte[] c = ascii(((StringField) p.getOperand()).getValue());
+            switch (p.getOp()) {
+                case EQUALS:
+                    return (d, off) -> stringEquals(d, off + fieldOffset, c);
+                case NOT_EQUALS:
+                    return (d, off) -> !stringEquals(d, off + fieldOffset, c);
+                case LIKE:
+                    return (d, off) -> stringContains(d, off + fieldOffset, c);
+                default:
+                    break;
+            }
+        }
+        // decode just the compared field
+        Predicate.Op op = p.getOp();
+        Field operand = p.getOperand();
+        return (d, off) -> readField(type, d, off + fieldOffset).compare(op, operand);
+    }
+
+    private static int readInt(byte[] d, int at) {
+        return (d[at] << 24) | ((d[at + 1] & 0xff) << 16) | ((d[at + 2] & 0xff) << 8) | (d[at + 3] & 0xff);
+    }
+
+    private static Field readField(Type type, byte[] d, int at) {
+        try {
+            return type.parse(new DataInputStream(new ByteArrayInputStream(d, at, type.getLen())));
+        } catch (ParseException e) {
+            throw new IllegalStateException("unreadable " + type + " field", e);
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    // a serialized string is its length, then its bytes
+    private static boolean stringEquals(byte[] d, int at, byte[] c) {
+        if (readInt(d, at) != c.length)
+            return false;
+        for (int i = 0; i < c.length; i++) {
+            if (d[at + 4 + i] != c[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean stringContains(byte[] d, int at, byte[] c) {
+        int len = readInt(d, at);
+        int start = at + 4;
+        search:
+        for (int i = 0; i <= len - c.length; i++) {
+            for (int j = 0; j < c.length; j++) {
+                if (d[start + i + j] != c[j])
+                    continue search;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param type the type of the compared fields
+     * @return a filter accepting the pairs of tuples p accepts
+     */
+    public static TuplePairFilter compile(JoinPredicate p, Type type) {
+        int f1 = p.getField1();
+        int f2 = p.getField2();
+        if (type == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                case LIKE:
+                    return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+                case NOT_EQUALS:
+                    return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+                case GREATER_THAN:
+                    return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+                case GREATER_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+                case LESS_THAN:
+                    return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+                case LESS_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            }
+        } else if (type == Type.STRING_TYPE) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                    return (t1, t2) -> t1.getString(f1).equals(t2.getString(f2));
+                case NOT_EQUALS:
+                    return (t1, t2) -> !t1.getString(f1).equals(t2.getString(f2));
+                case GREATER_THAN:
+                    return (t1, t2) -> t1.getString(f1).compareTo(t2.getString(f2)) > 0;
+                case GREATER_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getString(f1).compareTo(t2.getString(f2)) >= 0;
+                case LESS_THAN:
+                    return (t1, t2) -> t1.getString(f1).compareTo(t2.getString(f2)) < 0;
+                case LESS_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getString(f1).compareTo(t2.getString(f2)) <= 0;
+                case LIKE:
+                    return (t1, t2) -> t1.getString(f1).contains(t2.getString(f2));
+            }
+        }
+        return p::filter;
+    }
+}
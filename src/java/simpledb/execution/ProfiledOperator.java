@@ -0,0 +1,226 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.NoSuchElementException;
+
+/**
+ * A ProfiledOperator returns the tuples of its child unchanged, and measures
+ * what it costs to produce them, for EXPLAIN ANALYZE: the tuples returned,
+ * the times the child was opened or rewound, the wall clock and CPU time
+ * spent in the child, and the pages it requested from the
+ * {@link BufferPool}, with how many of them were already cached.
+ * <p>
+ * The measurements include the child's own children, like the estimated
+ * costs of the optimizer do. CPU time is only measured on the calling
+ * thread, so it leaves out the workers of a {@link ParallelAggregate} and
+ * the thread of a {@link PipelineStage}, and
+ * page requests are counted across the whole buffer pool, so they include
+ * those of concurrent queries.
+ */
+public class ProfiledOperator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private OpIterator child;
+
+    transient private long rows = 0;
+    transient private long loops = 0;
+    transient private long wallNanos = 0;
+    transient private long cpuNanos = 0;
+    transient private long pageRequests = 0;
+    transient private long pageHits = 0;
+
+    // the counters when the current call into the child started
+    transient private long startWall, startCpu, startRequests, startHits;
+
+    /**
+     * Constructor.
+     *
+     * @param child the operator to measure
+     */
+    public ProfiledOperator(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Measure every operator of a plan, by putting a ProfiledOperator above
+     * each of them.
+     * <p>
+     * Scans and filters that their parent looks through, to push predicates
+     * or join keys down into a {@link SeqScan}, are left as they are, so
+     * that the plan still runs the same way. They are measured with their
+     * parent.
+     *
+     * @param plan the plan to measure
+     * @return the plan with its operators measured
+     */
+    public static OpIterator profile(OpIterator plan) {
+        return profile(plan, false);
+    }
+
+    private static OpIterator profile(OpIterator plan, boolean inspected) {
+        if (plan == null || plan instanceof ProfiledOperator)
+            return plan;
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            if (children != null) {
+                OpIterator[] profiled = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++)
+                    profiled[i] = profile(children[i], inspectsChild(op, i));
+                op.setChildren(profiled);
+            }
+        }
+        if (inspected && (plan instanceof SeqScan || plan instanceof Filter))
+            return plan;
+        return new ProfiledOperator(plan);
+    }
+
+    /**
+     * @return true if op looks for a SeqScan in its i-th child, possibly
+     *         under filters
+     */
+    static boolean inspectsChild(Operator op, int i) {
+        // the scan of the table it reads directly
+        if (op instanceof Filter || op instanceof HashSemiJoin || op instanceof ParallelAggregate)
+            return i == 0;
+        // the probe side and the inner side
+        if (op instanceof HashEquiJoin || op instanceof IndexNestedLoopJoin)
+            return i == 1;
+        return false;
+    }
+
+    /** @return the operator measured */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    /** @return the number of tuples returned */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the number of times the child was opened or rewound */
+    public long getLoops() {
+        return loops;
+    }
+
+    /** @return the wall clock time spent in the child, in nanoseconds */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return the CPU time the calling thread spent in the child, in
+     *         nanoseconds, or -1 if the JVM can't measure it
+     */
+    public long getCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? cpuNanos : -1;
+    }
+
+    /** @return the number of pages requested from the buffer pool */
+    public long getPageRequests() {
+        return pageRequests;
+    }
+
+    /** @return the number of those pages that were in the buffer pool */
+    public long getPageHits() {
+        return pageHits;
+    }
+
+    /** @return the number of those pages that had to be read */
+    public long getPageMisses() {
+        return pageRequests - pageHits;
+    }
+
+    private void start() {
+        BufferPool bp = Database.getBufferPool();
+        startRequests = bp.getPageRequests();
+        startHits = bp.getPageHits();
+        startCpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+        startWall = System.nanoTime();
+    }
+
+    private void stop() {
+        wallNanos += System.nanoTime() - startWall;
+        if (THREADS.isCurrentThreadCpuTimeSupported())
+            cpuNanos += THREADS.getCurrentThreadCpuTime() - startCpu;
+        BufferPool bp = Database.getBufferPool();
+        pageRequests += bp.getPageRequests() - startRequests;
+        pageHits += bp.getPageHits() - startHits;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        try {
+            child.open();
+        } finally {
+            stop();
+        }
+        loops++;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        start();
+        try {
+            child.close();
+        } finally {
+            stop();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            child.rewind();
+        } finally {
+            stop();
+        }
+        loops++;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        Tuple t;
+        start();
+        try {
+            t = child.hasNext() ? child.next() : null;
+        } finally {
+            stop();
+        }
+        if (t != null)
+            rows++;
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+    @Override
+    public int getEstimatedCardinality() {
+        return child instanceof Operator ? ((Operator) child).getEstimatedCardinality() : 0;
+    }
+}
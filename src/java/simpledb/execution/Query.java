@@ -3,12 +3,14 @@ package simpledb.execution;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * Query is a wrapper class to manage the execution of queries. It takes a query
@@ -23,10 +25,14 @@ public class Query implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of tuples in each batch of a {@link #stream(Executor)} cursor. */
+    public static final int STREAM_BATCH_SIZE = 1024;
+
     transient private OpIterator op;
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    transient private QueryMemory memory = null;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -57,13 +63,32 @@ public class Query implements Serializable {
         tid = t;
     }
 
+    /**
+     * Open the plan, with its operators reserving the memory they buffer
+     * tuples in from a share of the {@link MemoryManager}.
+     */
     public void start() throws DbException,
             TransactionAbortedException {
-        op.open();
+        memory = Database.getMemoryManager().open();
+        memory.attach(op);
+        try {
+            op.open();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            memory.close();
+            throw e;
+        }
 
         started = true;
     }
 
+    /**
+     * @return the memory of the query while it runs, or null if it isn't
+     *         running
+     */
+    public QueryMemory getQueryMemory() {
+        return memory;
+    }
+
     public TupleDesc getOutputTupleDesc() {
         return this.op.getTupleDesc();
     }
@@ -96,30 +121,65 @@ public class Query implements Serializable {
     /** Close the iterator */
     public void close() {
         op.close();
+        if (memory != null) {
+            memory.close();
+            memory = null;
+        }
         started = false;
     }
 
+    /**
+     * Run the query asynchronously, a batch at a time as the returned cursor
+     * asks for them, instead of through start, hasNext and next.
+     *
+     * @param executor  runs the plan
+     * @param batchSize the number of tuples in each batch
+     * @see QueryCursor
+     */
+    public QueryCursor stream(Executor executor, int batchSize) {
+        return new QueryCursor(this, executor, batchSize);
+    }
+
+    /**
+     * Run the query asynchronously in batches of {@link #STREAM_BATCH_SIZE}
+     * tuples.
+     *
+     * @see #stream(Executor, int)
+     */
+    public QueryCursor stream(Executor executor) {
+        return stream(executor, STREAM_BATCH_SIZE);
+    }
+
     public void execute() throws DbException, TransactionAbortedException {
+        execute(System.out);
+    }
+
+    /**
+     * Run the query, printing its results.
+     *
+     * @param out where to print the results
+     */
+    public void execute(PrintStream out) throws DbException, TransactionAbortedException {
         TupleDesc td = this.getOutputTupleDesc();
 
         StringBuilder names = new StringBuilder();
         for (int i = 0; i < td.numFields(); i++) {
             names.append(td.getFieldName(i)).append("\t");
         }
-        System.out.println(names);
+        out.println(names);
         for (int i = 0; i < names.length() + td.numFields() * 4; i++) {
-            System.out.print("-");
+            out.print("-");
         }
-        System.out.println();
+        out.println();
 
         this.start();
         int cnt = 0;
         while (this.hasNext()) {
             Tuple tup = this.next();
-            System.out.println(tup);
+            out.println(tup);
             cnt++;
         }
-        System.out.println("\n " + cnt + " rows.");
+        out.println("\n " + cnt + " rows.");
         this.close();
     }
 }
@@ -0,0 +1,130 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous cursor over the results of a {@link Query}, returned by
+ * {@link Query#stream}.
+ * <p>
+ * The plan runs on an executor, one batch of tuples for each call to
+ * {@link #fetch}, so it never runs further ahead of the consumer than the
+ * batches the consumer asked for. Batches are computed one after another,
+ * in the order they were asked for, since operators are not thread safe.
+ * An empty batch marks the end of the results; the operator tree is closed
+ * as soon as it is exhausted, fails, or the cursor is closed, whichever
+ * comes first. Closing stops a batch being computed at its next tuple.
+ * <p>
+ * The cursor does not commit or abort the query's transaction.
+ */
+public class QueryCursor implements AutoCloseable {
+
+    private final Query query;
+    private final Executor executor;
+    private final int batchSize;
+
+    /** The last batch asked for, or the closing of the plan; guarded by this. */
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+    private boolean closed = false;
+    private volatile boolean cancelled = false;
+
+    // only touched by the batch tasks, which run one at a time
+    private boolean started = false;
+    private boolean finished = false;
+
+    QueryCursor(Query query, Executor executor, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive");
+        this.query = query;
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return query.getOutputTupleDesc();
+    }
+
+    /**
+     * Ask for the next batch of results.
+     *
+     * @return a future of up to batchSize tuples, which are empty once the
+     *         results are exhausted or the cursor is closed, and which
+     *         fails with a CompletionException wrapping the DbException or
+     *         TransactionAbortedException the plan threw
+     */
+    public synchronized CompletableFuture<List<Tuple>> fetch() {
+        if (closed)
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        CompletableFuture<List<Tuple>> batch = tail.thenApplyAsync(ignored -> nextBatch(), executor);
+        tail = batch;
+        return batch;
+    }
+
+    /**
+     * Close the cursor, stopping the plan at its next tuple and closing the
+     * operator tree once the batches already asked for are done.
+     *
+     * @return a future completed once the operator tree is closed
+     */
+    public synchronized CompletableFuture<Void> cancel() {
+        if (!closed) {
+            closed = true;
+            cancelled = true;
+            tail = tail.handleAsync((r, e) -> {
+                finish();
+                return null;
+            }, executor);
+        }
+        return tail.handle((r, e) -> null);
+    }
+
+    /**
+     * Close the cursor without waiting for the operator tree to close.
+     *
+     * @see #cancel()
+     */
+    @Override
+    public void close() {
+        cancel();
+    }
+
+    private List<Tuple> nextBatch() {
+        List<Tuple> batch = new ArrayList<>();
+        if (finished)
+            return batch;
+        try {
+            if (!started) {
+                query.start();
+                started = true;
+            }
+            while (!cancelled && batch.size() < batchSize && query.hasNext())
+                batch.add(query.next());
+            if (batch.size() < batchSize)
+                finish();
+        } catch (DbException | TransactionAbortedException e) {
+            finish();
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            finish();
+            throw e;
+        }
+        return batch;
+    }
+
+    private void finish() {
+        if (finished)
+            return;
+        finished = true;
+        if (started)
+            query.close();
+    }
+}
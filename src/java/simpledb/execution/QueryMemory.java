@@ -0,0 +1,85 @@
+package simpledb.execution;
+
+/**
+ * The memory of one query, granted by a {@link MemoryManager}, which the
+ * operators of the query reserve from through {@link OperatorMemory}.
+ * Closing it returns everything the query still holds.
+ */
+public class QueryMemory implements AutoCloseable {
+
+    /**
+     * The memory of operators that don't run as part of a {@link Query},
+     * which grants every reservation.
+     */
+    public static final QueryMemory UNBOUNDED = new QueryMemory(null);
+
+    // null if unbounded
+    private final MemoryManager manager;
+
+    // guarded by the manager
+    long granted = 0;
+    long peak = 0;
+
+    QueryMemory(MemoryManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Make the operators of a plan reserve from this memory.
+     *
+     * @param plan the plan of the query
+     */
+    public void attach(OpIterator plan) {
+        if (!(plan instanceof Operator))
+            return;
+        Operator op = (Operator) plan;
+        op.setQueryMemory(this);
+        OpIterator[] children = op.getChildren();
+        if (children != null) {
+            for (OpIterator child : children) {
+                attach(child);
+            }
+        }
+    }
+
+    /**
+     * @return a new account for one operator, or one part of the work of an
+     *         operator, to reserve from this memory
+     */
+    public OperatorMemory operatorMemory() {
+        return new OperatorMemory(this);
+    }
+
+    boolean grant(long bytes) {
+        return manager == null || manager.grant(this, bytes);
+    }
+
+    void release(long bytes) {
+        if (manager != null)
+            manager.release(this, bytes);
+    }
+
+    /** @return the number of bytes the query holds */
+    public long getGranted() {
+        if (manager == null)
+            return 0;
+        synchronized (manager) {
+            return granted;
+        }
+    }
+
+    /** @return the largest number of bytes the query held at once */
+    public long getPeak() {
+        if (manager == null)
+            return 0;
+        synchronized (manager) {
+            return peak;
+        }
+    }
+
+    /** Return all the memory of the query to its manager. */
+    public void close() {
+        if (manager != null)
+            manager.close(this);
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A QueryResultCache keeps the results of recent queries in memory, so that
+ * a query run again over unchanged tables is answered without executing its
+ * plan.
+ * <p>
+ * Results are keyed by the normalized text of their query, and stored with
+ * the versions of the tables the query read, as returned by
+ * {@link simpledb.storage.BufferPool#getTableVersion} when its plan was
+ * built. A result is only returned for the same versions, so any insert or
+ * delete into one of the tables invalidates it. The least recently used
+ * results are evicted when the cached tuples take more than the capacity,
+ * and a result larger than the capacity isn't cached at all.
+ *
+ * @Threadsafe
+ */
+public class QueryResultCache {
+
+    /** Default number of bytes of tuples the cache holds. */
+    public static final long DEFAULT_CAPACITY = 4L << 20;
+
+    private static class Entry {
+        final Map<Integer, Long> versions;
+        final TupleDesc td;
+        final List<Tuple> tuples;
+        final long bytes;
+
+        Entry(Map<Integer, Long> versions, TupleDesc td, List<Tuple> tuples, long bytes) {
+            this.versions = versions;
+            this.td = td;
+            this.tuples = tuples;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long capacity;
+    // in access order, so that the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of bytes of tuples to hold; 0 disables the
+     *                 cache
+     */
+    public QueryResultCache(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must be non-negative");
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Look up the result of a query.
+     *
+     * @param key      the normalized text of the query
+     * @param versions the current versions of the tables the query reads, by
+     *                 table id
+     * @return an iterator over the cached result, or null if there is no
+     *         result for these versions
+     */
+    public synchronized OpIterator get(String key, Map<Integer, Long> versions) {
+        Entry e = entries.get(key);
+        if (e == null || !e.versions.equals(versions)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new TupleIterator(e.td, e.tuples);
+    }
+
+    /**
+     * Wrap the plan of a query whose result isn't cached, so that its result
+     * is cached once the plan has been read to the end.
+     *
+     * @param key      the normalized text of the query
+     * @param versions the versions of the tables the query reads, by table
+     *                 id, taken before the plan was built
+     * @param plan     the plan of the query
+     * @return the plan to run instead
+     */
+    public OpIterator record(String key, Map<Integer, Long> versions, OpIterator plan) {
+        if (capacity == 0)
+            return plan;
+        return new Recorder(key, new LinkedHashMap<>(versions), plan);
+    }
+
+    private synchronized void put(String key, Entry e) {
+        Entry old = entries.put(key, e);
+        if (old != null)
+            bytes -= old.bytes;
+        bytes += e.bytes;
+        Iterator<Entry> lru = entries.values().iterator();
+        while (bytes > capacity) {
+            bytes -= lru.next().bytes;
+            lru.remove();
+        }
+    }
+
+    /** Drop all cached results. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** @return the number of results cached */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of bytes of tuples cached */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** @return the number of lookups that returned a result */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that didn't */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the tuples of its child unchanged, keeping a copy of them, and
+     * caches the copy when the child is exhausted.
+     */
+    private class Recorder extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final Map<Integer, Long> versions;
+        private OpIterator child;
+
+        // the tuples read so far, or null once cached or too large
+        transient private List<Tuple> recorded;
+        transient private long recordedBytes;
+
+        Recorder(String key, Map<Integer, Long> versions, OpIterator child) {
+            this.key = key;
+            this.versions = versions;
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, NoSuchElementException,
+                TransactionAbortedException {
+            child.open();
+            recorded = new ArrayList<>();
+            recordedBytes = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            recorded = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            if (recorded != null) {
+                recorded.clear();
+                recordedBytes = 0;
+            }
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                if (recorded != null) {
+                    put(key, new Entry(versions, getTupleDesc(),
+                            Collections.unmodifiableList(recorded), recordedBytes));
+                    recorded = null;
+                }
+                return null;
+            }
+            Tuple t = child.next();
+            if (recorded != null) {
+                TupleDesc td = getTupleDesc();
+                recordedBytes += td.getSize();
+                if (recordedBytes > capacity) {
+                    recorded = null;
+                } else {
+                    // operators may reuse or change the tuples they return
+                    Tuple copy = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); i++)
+                        copy.setField(i, t.getField(i));
+                    recorded.add(copy);
+                }
+            }
+            return t;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
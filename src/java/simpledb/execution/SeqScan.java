@@ -5,11 +5,14 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
@@ -24,6 +27,34 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private int tableId;
     private DbFileIterator dbFileIterator;
+    // the fields of the table this scan returns, or null for all of them
+    private int[] columns;
+    // true if the file iterator returns whole tuples that this scan projects
+    transient private boolean projectHere;
+    transient private TupleDesc projectedDesc;
+    // predicates pushed down by a parent Filter, tested on page records
+    private PredicateCompiler.SlotFilter pushedFilter;
+
+    // runtime filters pushed down by parent operators, and the next tuple
+    // that passed them all
+    private final List<RuntimeFilter> runtimeFilters = new ArrayList<>();
+    transient private Tuple nextTuple;
+
+    /**
+     * A filter discarding tuples whose field can't match any key of a
+     * {@link BloomFilter}.
+     */
+    private static final class RuntimeFilter implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int field;
+        final BloomFilter keys;
+
+        RuntimeFilter(int field, BloomFilter keys) {
+            this.field = field;
+            this.keys = keys;
+        }
+    }
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -51,6 +82,21 @@ public class SeqScan implements OpIterator {
         this.tableId = tableid;
     }
 
+    /**
+     * Creates a sequential scan returning only some fields of the specified
+     * table. Heap files skip the other fields as tuples are read from their
+     * pages, so operators above the scan never see them.
+     *
+     * @param columns
+     *                   the indexes in the table of the fields to return, in
+     *                   the order to return them, or null for all fields
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns == null ? null : columns.clone();
+    }
+
     /**
      * @return
      *         return the table name of the table the operator scans. This should
@@ -60,6 +106,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -68,6 +128,41 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the index in the table of each field this scan returns
+     */
+    public int[] getColumns() {
+        if (columns != null)
+            return columns.clone();
+        int[] all = new int[Database.getCatalog().getTupleDesc(tableId).numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return all;
+    }
+
+    /**
+     * @return true if this scan returns only some of the fields of its table
+     */
+    public boolean isProjected() {
+        return columns != null;
+    }
+
+    /**
+     * @param tableTuple a tuple of the scanned table
+     * @return the fields of tableTuple this scan returns, with its RecordId
+     */
+    Tuple project(Tuple tableTuple) {
+        if (columns == null)
+            return tableTuple;
+        if (projectedDesc == null)
+            projectedDesc = Database.getCatalog().getTupleDesc(tableId).project(columns);
+        Tuple t = new Tuple(projectedDesc);
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, tableTuple.getField(columns[i]));
+        t.setRecordId(tableTuple.getRecordId());
+        return t;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * 
@@ -88,16 +183,79 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
+        this.projectedDesc = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Skip the tuples whose given field certainly isn't among keys, as soon
+     * as they are read from their page. Filters may be added while the scan
+     * is open; they then apply to the tuples not read yet.
+     *
+     * @param field the index of the field to test
+     * @param keys  the values the field may take in the tuples to keep
+     */
+    public void addRuntimeFilter(int field, BloomFilter keys) {
+        runtimeFilters.add(new RuntimeFilter(field, keys));
+    }
+
+    /**
+     * Stop filtering on keys.
+     *
+     * @see #addRuntimeFilter(int, BloomFilter)
+     */
+    public void removeRuntimeFilter(BloomFilter keys) {
+        runtimeFilters.removeIf(f -> f.keys == keys);
+    }
+
+    /**
+     * Test a conjunction of predicates on the records of the pages of the
+     * table, before they are decoded into tuples, so that tuples failing it
+     * are never built. Only heap files support this; the predicates apply
+     * from the next time the scan is opened.
+     *
+     * @param conjuncts predicates over the fields this scan returns, or
+     *                  null to stop filtering
+     * @return true if the scan now filters on conjuncts, false if the file
+     *         can't, and the tuples are to be filtered by the caller
+     */
+    public boolean pushDownPredicates(List<Predicate> conjuncts) {
+        if (conjuncts == null) {
+            pushedFilter = null;
+            return true;
+        }
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            return false;
+        // renumber the fields as fields of the table
+        int[] table = getColumns();
+        List<Predicate> onTable = new ArrayList<>();
+        for (Predicate p : conjuncts)
+            onTable.add(new Predicate(table[p.getField()], p.getOp(), p.getOperand()));
+        pushedFilter = PredicateCompiler.compile(onTable, Database.getCatalog().getTupleDesc(tableId));
+        return true;
+    }
+
+    /**
+     * @return the number of runtime filters applied to this scan
+     */
+    public int numRuntimeFilters() {
+        return runtimeFilters.size();
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        projectHere = columns != null && !(file instanceof HeapFile);
+        if (file instanceof HeapFile && (columns != null || pushedFilter != null))
+            dbFileIterator = ((HeapFile) file).iterator(tid, columns, pushedFilter);
+        else
+            dbFileIterator = file.iterator(tid);
         dbFileIterator.open();
+        nextTuple = null;
     }
 
     /**
@@ -113,6 +271,8 @@ public class SeqScan implements OpIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc original = Database.getCatalog().getTupleDesc(tableId);
+        if (columns != null)
+            original = original.project(columns);
         int fieldNum = original.numFields();
         Type[] types = new Type[fieldNum];
         String[] names = new String[fieldNum];
@@ -128,23 +288,51 @@ public class SeqScan implements OpIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.hasNext();
+        if (runtimeFilters.isEmpty() && nextTuple == null)
+            return dbFileIterator.hasNext();
+        while (nextTuple == null && dbFileIterator.hasNext()) {
+            Tuple t = readNext();
+            if (passesRuntimeFilters(t))
+                nextTuple = t;
+        }
+        return nextTuple != null;
+    }
+
+    private Tuple readNext() throws TransactionAbortedException, DbException {
+        Tuple t = dbFileIterator.next();
+        return projectHere ? project(t) : t;
+    }
+
+    private boolean passesRuntimeFilters(Tuple t) {
+        for (RuntimeFilter f : runtimeFilters) {
+            if (!f.keys.mightContain(t.getField(f.field)))
+                return false;
+        }
+        return true;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.next();
+        if (runtimeFilters.isEmpty() && nextTuple == null)
+            return readNext();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
     }
 
     public void close() {
         // some code goes here
         dbFileIterator.close();
+        nextTuple = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         dbFileIterator.rewind();
+        nextTuple = null;
     }
 }
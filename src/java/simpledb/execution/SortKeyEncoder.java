@@ -0,0 +1,133 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * SortKeyEncoder turns the ORDER BY fields of a tuple into a normalized byte
+ * key: two tuples compare the same way as their keys do under an unsigned,
+ * byte-by-byte comparison ({@link #compare(byte[], byte[])}). Sorting on keys
+ * encoded once per tuple replaces repeated calls to {@link Field#compare}
+ * with comparisons of primitive bytes.
+ * <p>
+ * The key of a tuple is the concatenation of the keys of its fields:
+ * <ul>
+ * <li>an int is written big-endian with its sign bit flipped;</li>
+ * <li>a string is written as its big-endian UTF-16 code units (the order of
+ * {@link String#compareTo}), with 0x00 bytes escaped as 0x00 0xFF and a
+ * 0x00 0x01 terminator, so that a string sorts before its extensions.</li>
+ * </ul>
+ * All bytes of the key of a descending field are inverted.
+ */
+public class SortKeyEncoder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final Type[] types;
+
+    transient private byte[] buf;
+    transient private int len;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of the tuples to encode
+     * @param fields
+     *            the indexes of the sort fields, most significant first
+     * @param asc
+     *            for each sort field, true if it sorts in ascending order
+     */
+    public SortKeyEncoder(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+        }
+    }
+
+    /**
+     * @return the normalized sort key of t
+     */
+    public byte[] encode(Tuple t) {
+        if (buf == null)
+            buf = new byte[64];
+        len = 0;
+        for (int i = 0; i < fields.length; i++) {
+            int start = len;
+            Field f = t.getField(fields[i]);
+            if (types[i] == Type.INT_TYPE) {
+                putInt(((IntField) f).getValue());
+            } else {
+                putString(((StringField) f).getValue());
+            }
+            if (!asc[i]) {
+                for (int j = start; j < len; j++) {
+                    buf[j] = (byte) ~buf[j];
+                }
+            }
+        }
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        int u = v ^ Integer.MIN_VALUE;
+        buf[len++] = (byte) (u >>> 24);
+        buf[len++] = (byte) (u >>> 16);
+        buf[len++] = (byte) (u >>> 8);
+        buf[len++] = (byte) u;
+    }
+
+    private void putByte(int b) {
+        if (b == 0) {
+            buf[len++] = 0x00;
+            buf[len++] = (byte) 0xFF;
+        } else {
+            buf[len++] = (byte) b;
+        }
+    }
+
+    private void putString(String s) {
+        ensure(4 * s.length() + 2);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            putByte(c >>> 8);
+            putByte(c & 0xFF);
+        }
+        buf[len++] = 0x00;
+        buf[len++] = 0x01;
+    }
+
+    /**
+     * Compare two keys as unsigned byte strings.
+     *
+     * @return a negative number, zero, or a positive number as k1 is less
+     *         than, equal to, or greater than k2
+     */
+    public static int compare(byte[] k1, byte[] k2) {
+        int n = Math.min(k1.length, k2.length);
+        for (int i = 0; i < n; i++) {
+            if (k1[i] != k2[i])
+                return (k1[i] & 0xFF) - (k2[i] & 0xFF);
+        }
+        return k1.length - k2.length;
+    }
+}
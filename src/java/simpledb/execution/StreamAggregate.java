@@ -0,0 +1,198 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An {@link Aggregate} over a child whose tuples arrive clustered by their
+ * group, e.g. sorted on the group-by fields by an {@link OrderBy} or read
+ * from a B+ tree keyed on them.
+ * <p>
+ * Instead of hashing every group, the aggregates of the current group are
+ * accumulated until the group-by fields change, and the group is emitted
+ * right away. Only one group is held in memory at a time, and groups are
+ * returned in the order of the child. If the child isn't clustered, a group
+ * split across several runs is returned once per run.
+ */
+public class StreamAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The OpIterator that is feeding us tuples, clustered by
+     *               gfield.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result
+     * @param aop    The aggregation operator to use
+     */
+    public StreamAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield }, new int[] { gfield }, new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups.
+     *
+     * @param child   The OpIterator that is feeding us tuples, clustered by
+     *                gfields.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result
+     * @param aops    The operator of each aggregate
+     * @throws IllegalArgumentException if there are no group-by fields
+     */
+    public StreamAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        super(child, afields, gfields, aops);
+        if (gfields.length == 0)
+            throw new IllegalArgumentException("streaming aggregation needs group-by fields");
+    }
+
+    @Override
+    protected OpIterator results() {
+        return new GroupStream();
+    }
+
+    /**
+     * Reads the child one group at a time.
+     */
+    private class GroupStream implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator child = getChildren()[0];
+        private final TupleDesc td = StreamAggregate.this.getTupleDesc();
+        private final int[] gfields = groupFields();
+        private final int[] afields = aggregateFields();
+        private final Aggregator.Op[] aops = aggregateOps();
+
+        // the group being aggregated, and its running aggregates
+        private final Field[] key = new Field[gfields.length];
+        private final long[] values = new long[afields.length];
+        private final long[] counts = new long[afields.length];
+
+        // the first tuple of the next group, already read from the child
+        private Tuple pending;
+        private Tuple next;
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readGroup();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        private Tuple readGroup() throws DbException, TransactionAbortedException {
+            if (pending == null) {
+                if (!child.hasNext())
+                    return null;
+                pending = child.next();
+            }
+            for (int i = 0; i < gfields.length; i++) {
+                key[i] = pending.getField(gfields[i]);
+            }
+            for (int a = 0; a < aops.length; a++) {
+                values[a] = aops[a] == Aggregator.Op.MIN ? Long.MAX_VALUE
+                        : aops[a] == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+                counts[a] = 0;
+            }
+            Tuple t = pending;
+            pending = null;
+            while (true) {
+                merge(t);
+                if (!child.hasNext())
+                    break;
+                t = child.next();
+                if (!inGroup(t)) {
+                    pending = t;
+                    break;
+                }
+            }
+
+            Tuple result = new Tuple(td);
+            for (int i = 0; i < key.length; i++) {
+                result.setField(i, key[i]);
+            }
+            for (int a = 0; a < aops.length; a++) {
+                result.setField(key.length + a, new IntField((int) result(a)));
+            }
+            return result;
+        }
+
+        private boolean inGroup(Tuple t) {
+            for (int i = 0; i < gfields.length; i++) {
+                if (!key[i].equals(t.getField(gfields[i])))
+                    return false;
+            }
+            return true;
+        }
+
+        private void merge(Tuple t) {
+            for (int a = 0; a < aops.length; a++) {
+                if (aops[a] == Aggregator.Op.COUNT) {
+                    counts[a]++;
+                    continue;
+                }
+                int v = ((IntField) t.getField(afields[a])).getValue();
+                switch (aops[a]) {
+                    case MIN:
+                        values[a] = Math.min(values[a], v);
+                        break;
+                    case MAX:
+                        values[a] = Math.max(values[a], v);
+                        break;
+                    case SUM:
+                        values[a] += v;
+                        break;
+                    case AVG:
+                        values[a] += v;
+                        counts[a]++;
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("unsupported aggregate " + aops[a]);
+                }
+            }
+        }
+
+        private long result(int a) {
+            switch (aops[a]) {
+                case AVG:
+                    return values[a] / counts[a];
+                case COUNT:
+                    return counts[a];
+                default:
+                    return values[a];
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            pending = null;
+            next = null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            pending = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link Distinct} over a child whose tuples arrive clustered by their key
+ * fields, e.g. sorted on them by an {@link OrderBy} or read from a B+ tree
+ * keyed on them.
+ * <p>
+ * Instead of hashing every key, a tuple is returned when its key differs
+ * from the key of the tuple returned before it. Only that key is held in
+ * memory, nothing is spilled, and tuples are returned in the order of the
+ * child. If the child isn't clustered, a key split across several runs is
+ * returned once per run.
+ */
+public class StreamDistinct extends Distinct {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+
+    // the key of the last tuple returned, or null before the first one
+    transient private Field[] last;
+
+    /**
+     * Constructor.
+     *
+     * @param child  the child operator, clustered by fields
+     * @param fields the key fields, which must be distinct among the
+     *               returned tuples
+     */
+    public StreamDistinct(OpIterator child, int[] fields) {
+        super(child, fields);
+        this.fields = fields.clone();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        last = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        last = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        OpIterator child = getChildren()[0];
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (last == null) {
+                last = new Field[fields.length];
+            } else if (sameKey(t)) {
+                continue;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                last[i] = t.getField(fields[i]);
+            }
+            return t;
+        }
+        return null;
+    }
+
+    private boolean sameKey(Tuple t) {
+        for (int i = 0; i < fields.length; i++) {
+            if (!last[i].equals(t.getField(fields[i])))
+                return false;
+        }
+        return true;
+    }
+}
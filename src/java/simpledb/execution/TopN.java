@@ -0,0 +1,206 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT ... OFFSET in one
+ * step. Rather than sorting its whole input like {@link OrderBy}, it keeps
+ * only the offset + limit best tuples seen so far in a bounded heap, so its
+ * memory use is proportional to the number of tuples requested, not to the
+ * size of the input.
+ * <p>
+ * The output is the same as OrderBy followed by {@link Limit}: ties are
+ * returned in the order the child produced them.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final String orderByFieldName;
+    private final boolean[] asc;
+    private final int limit;
+    private final int offset;
+    private final SortKeyEncoder encoder;
+
+    transient private Tuple[] result;
+    transient private int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of leading tuples of the ordering to skip.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, int offset, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, offset, child);
+    }
+
+    /**
+     * Creates a new TopN node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of leading tuples of the ordering to skip.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, int offset, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per sort field");
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must be non-negative");
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must be non-negative");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+        this.encoder = new SortKeyEncoder(td, orderbyFields, asc);
+    }
+
+    /** @return true if the first sort field is in ascending order */
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    /** @return the first sort field */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    public String getOrderFieldName() {
+        return orderByFieldName;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * A buffered tuple, its sort key, and its position in the input, to keep
+     * ties stable.
+     */
+    private static class Entry {
+        final byte[] key;
+        final Tuple tuple;
+        final long seq;
+
+        Entry(byte[] key, Tuple tuple, long seq) {
+            this.key = key;
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        int k = (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+        Comparator<Entry> order = (e1, e2) -> {
+            int c = SortKeyEncoder.compare(e1.key, e2.key);
+            return c != 0 ? c : Long.compare(e1.seq, e2.seq);
+        };
+
+        // max-heap on the output order: the root is the worst of the best k
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)),
+                order.reversed());
+        long seq = 0;
+        if (k > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                Entry e = new Entry(encoder.encode(t), t, seq++);
+                if (heap.size() < k) {
+                    heap.add(e);
+                } else if (order.compare(e, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(e);
+                }
+            }
+        }
+
+        int n = Math.max(0, heap.size() - offset);
+        result = new Tuple[n];
+        // the heap hands out the worst tuple first
+        for (int i = heap.size() - 1; i >= 0; i--) {
+            Entry e = heap.poll();
+            if (i >= offset)
+                result[i - offset] = e.tuple;
+        }
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+    }
+
+    public void rewind() {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (result != null && pos < result.length)
+            return result[pos++];
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -168,6 +168,36 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns the maximum number of children of an internal page in this BTreeFile
+	 */
+	public int getFanout() {
+		int keySize = td.getFieldType(keyField).getLen();
+		int bitsPerEntryIncludingHeader = keySize * 8 + BTreePage.INDEX_SIZE * 8 + 1;
+		// same layout as BTreeInternalPage#getMaxEntries, plus the extra child pointer
+		int extraBits = 2 * BTreePage.INDEX_SIZE * 8 + 8 + 1;
+		return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerEntryIncludingHeader + 1;
+	}
+
+	/**
+	 * Returns the maximum number of tuples held by a leaf page in this BTreeFile
+	 */
+	public int getLeafCapacity() {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		int extraBits = 3 * BTreePage.INDEX_SIZE * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+	}
+
+	/**
+	 * Estimate the number of levels (including the leaf level) between the root
+	 * and the leaves of this B+ tree, from the file size and the fanout. Used by
+	 * the optimizer to cost index lookups without touching the tree.
+	 */
+	public int estimateHeight() {
+		int pages = Math.max(1, numPages());
+		return 1 + (int) Math.ceil(Math.log(pages) / Math.log(getFanout()));
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -188,7 +218,24 @@ public class BTreeFile implements DbFile {
                                        Field f)
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry entry = null;
+		while (it.hasNext()) {
+			entry = it.next();
+			// descend left whenever f may be found in the left subtree
+			if (f == null || entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+				return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
+			}
+		}
+		if (entry == null) {
+			throw new DbException("internal page " + pid + " has no entries");
+		}
+		return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,7 +75,11 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (!(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.canProbe(p, plan2)) {
+            // inner side is an unfiltered B+ tree keyed on the join field
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -134,6 +140,58 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cost of a join that probes a B+ tree on the inner table
+     * once per outer tuple (see {@link IndexNestedLoopJoin}).
+     * <p>
+     * Outer tuples are sorted in batches before probing, so the internal
+     * levels of the tree stay in the buffer pool across a batch; each probe
+     * is charged one descent amortized over the batch, one leaf page, the
+     * extra leaf pages holding its matches, and one unit per match.
+     * 
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand table
+     * @param cost1
+     *            Estimated cost of one full scan of the left-hand side
+     * @return the estimated cost, or Double.MAX_VALUE if the right-hand
+     *         table has no index that can answer the join predicate
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1) {
+        if (j instanceof LogicalSubplanJoinNode
+                || IndexNestedLoopJoin.probeOp(j.p) == null)
+            return Double.MAX_VALUE;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return Double.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        BTreeFile bf = (BTreeFile) f;
+        int keyField;
+        try {
+            keyField = bf.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        if (keyField != bf.keyField())
+            return Double.MAX_VALUE;
+
+        double selectivity = 1.0;
+        TableStats ts = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        if (ts != null)
+            selectivity = ts.avgSelectivity(keyField, j.p);
+        double matches = Math.max(1.0, card2 * selectivity);
+        double descent = (double) (bf.estimateHeight() - 1) / IndexNestedLoopJoin.DEFAULT_BATCH_SIZE;
+        double leafPages = Math.ceil(matches / bf.getLeafCapacity());
+        return cost1 + card1 * ((descent + leafPages) * TableStats.IOCOSTPERPAGE + matches);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -251,6 +309,8 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        if (joins.isEmpty())
+            return joins;
         PlanCache planCache = new PlanCache();
         CostCard minCard = new CostCard();
         int size = joins.size();
@@ -346,6 +406,9 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether a side is a bare scan of a base table, and so may be
+        // answered by probing an index
+        boolean t1Indexable, t2Indexable;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -361,6 +424,8 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias != null && isPkey(table2Alias,
                     j.f2PureName);
+            t1Indexable = !this.p.isFiltered(j.t1Alias);
+            t2Indexable = table2Alias != null && !this.p.isFiltered(table2Alias);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -389,6 +454,8 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
                         j.f2PureName);
+                t1Indexable = false;
+                t2Indexable = j.t2Alias != null && !this.p.isFiltered(j.t2Alias);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -401,6 +468,8 @@ public class JoinOptimizer {
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
+                t1Indexable = !this.p.isFiltered(j.t1Alias);
+                t2Indexable = false;
 
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
@@ -411,9 +480,13 @@ public class JoinOptimizer {
 
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        if (t2Indexable)
+            cost1 = Math.min(cost1, estimateIndexJoinCost(j, t1card, t2card, t1cost));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        if (t1Indexable)
+            cost2 = Math.min(cost2, estimateIndexJoinCost(j2, t2card, t1card, t2cost));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -481,7 +554,8 @@ public class JoinOptimizer {
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
-     * call this when the analyze flag is true.
+     * call this when the analyze flag is true. Without a display, the joins
+     * are printed to System.out instead.
      * 
      * @param js
      *            the join plan to visualize
@@ -498,6 +572,17 @@ public class JoinOptimizer {
             Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
+        if (java.awt.GraphicsEnvironment.isHeadless()) {
+            // no display to show the tree on, print the joins in order
+            Set<LogicalJoinNode> pathSoFar = new HashSet<>();
+            for (LogicalJoinNode j : js) {
+                pathSoFar.add(j);
+                System.out.println("Join " + j + " (Cost =" + pc.getCost(pathSoFar)
+                        + ", card = " + pc.getCard(pathSoFar) + ")");
+            }
+            return;
+        }
+
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
         // Set the default close operation for the window,
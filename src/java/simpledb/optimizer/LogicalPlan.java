@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -15,9 +17,9 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * All the aggregates of a LogicalPlan are computed in one pass, grouped
+ * by the same fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -26,18 +28,23 @@ import java.io.File;
  */
 public class LogicalPlan {
     private List<LogicalJoinNode> joins;
+    private final List<LogicalSemiJoinNode> semiJoins = new ArrayList<>();
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private boolean distinct = false;
+    private boolean pipelined = false;
+    private int limit = Limit.NO_LIMIT;
+    private int offset = 0;
     private String query;
 //    private Query owner;
 
@@ -108,6 +115,155 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Return true if a filter has been added over the table with the given alias
+     *  via {@link #addFilter}.
+     */
+    boolean isFiltered(String tableAlias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(tableAlias))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if node is an unfiltered scan of a heap file large enough
+     *         to be worth aggregating with a {@link ParallelAggregate}, on a
+     *         machine with more than one processor
+     */
+    private static boolean isLargeHeapScan(OpIterator node) {
+        if (!(node instanceof SeqScan) || ParallelAggregate.DEFAULT_WORKERS < 2)
+            return false;
+        DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) node).getTableId());
+        return file instanceof HeapFile
+                && ((HeapFile) file).numPages() >= ParallelAggregate.MIN_PAGES;
+    }
+
+    /**
+     * @return the fields node's tuples are known to be sorted on, most
+     *         significant first; empty if their order is unknown
+     */
+    private static int[] sortOrder(OpIterator node) {
+        if (node instanceof OrderBy)
+            return ((OrderBy) node).getOrderByFields();
+        if (node instanceof TopN)
+            return ((TopN) node).getOrderByFields();
+        if (node instanceof Filter)
+            return sortOrder(((Filter) node).getChildren()[0]);
+        if (node instanceof HashSemiJoin)
+            return sortOrder(((HashSemiJoin) node).getChildren()[0]);
+        // B+ trees are scanned in key order
+        DbFile file = null;
+        if (node instanceof SeqScan) {
+            SeqScan scan = (SeqScan) node;
+            file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (file instanceof BTreeFile) {
+                // the key's position among the fields the scan returns
+                int[] columns = scan.getColumns();
+                for (int i = 0; i < columns.length; i++) {
+                    if (columns[i] == ((BTreeFile) file).keyField())
+                        return new int[] { i };
+                }
+                return new int[0];
+            }
+        } else if (node instanceof BTreeScan)
+            file = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(((BTreeScan) node).getTableName()));
+        if (file instanceof BTreeFile)
+            return new int[] { ((BTreeFile) file).keyField() };
+        return new int[0];
+    }
+
+    /**
+     * Make a join return views of the tuples it joins instead of copies.
+     */
+    private static void lateMaterialize(OpIterator join) {
+        if (join instanceof Join)
+            ((Join) join).setLateMaterialization(true);
+        else if (join instanceof HashEquiJoin)
+            ((HashEquiJoin) join).setLateMaterialization(true);
+        else if (join instanceof IndexNestedLoopJoin)
+            ((IndexNestedLoopJoin) join).setLateMaterialization(true);
+    }
+
+    /**
+     * @return true if the tuples of node arrive clustered by gfields, so that
+     *         a {@link StreamAggregate} can group them: the first fields node
+     *         is sorted on are exactly gfields, in any order
+     */
+    private static boolean isGroupedBy(OpIterator node, int[] gfields) {
+        int[] order = sortOrder(node);
+        if (gfields.length == 0 || gfields.length > order.length)
+            return false;
+        Set<Integer> prefix = new HashSet<>();
+        for (int i = 0; i < gfields.length; i++) {
+            prefix.add(order[i]);
+        }
+        for (int gfield : gfields) {
+            if (!prefix.remove(gfield))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the fields of each table alias the query reads,
+     *         or null if it reads every field (e.g. SELECT *)
+     */
+    private Map<String, Set<String>> requiredFields() {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.addAll(groupByFields);
+        names.addAll(aggFields);
+        names.addAll(oByFields);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalSemiJoinNode sj : semiJoins) {
+            if (sj.f1QuantifiedName != null)
+                names.add(sj.f1QuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+
+        Map<String, Set<String>> required = new HashMap<>();
+        for (LogicalScanNode table : tables)
+            required.put(table.alias, new HashSet<>());
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*") || !required.containsKey(parts[0]))
+                return null;
+            required.get(parts[0]).add(parts[1]);
+        }
+        return required;
+    }
+
+    /**
+     * @return the indexes of the fields of td named in fields, or null if
+     *         they are all named
+     */
+    private static int[] scanColumns(TupleDesc td, Set<String> fields) {
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldName(i) == null)
+                return null;
+            if (fields.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.size() == td.numFields())
+            return null;
+        // a scan returns at least one field, so that tuples can be counted
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -159,6 +315,28 @@ public class LogicalPlan {
         joins.add(lj);
     }
 
+    /** Add a semi-join of a table with a subquery (IN or EXISTS), or an anti-join (NOT IN or
+     *  NOT EXISTS): only the tuples whose field has (or hasn't) a match among the first field of
+     *  the subquery's results are kept. Unlike a join with a subquery, the fields of the subquery
+     *  aren't added to the results, and each tuple is kept at most once.
+     *  @param joinField1 The name of the field matched with the subquery; this can be
+     *  a fully qualified name or an unqualified unique field name. If null, the subquery is an
+     *  uncorrelated EXISTS, and all tuples are kept if it has any result (none if anti).
+     *  @param subPlan the subquery
+     *  @param anti true for NOT IN and NOT EXISTS
+     *  @throws ParsingException if the field is ambiguous, or is not in one of the tables
+     *      added via {@link #addScan}
+     */
+    public void addSemiJoin(String joinField1, OpIterator subPlan, boolean anti) throws ParsingException {
+        String table1 = null;
+        if (joinField1 != null) {
+            joinField1 = disambiguateName(joinField1);
+            table1 = joinField1.split("[.]")[0];
+        }
+        semiJoins.add(new LogicalSemiJoinNode(table1, joinField1, subPlan, anti));
+        System.out.println("Added " + (anti ? "anti" : "semi") + "-join on " + joinField1);
+    }
+
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
         accessed by the plan.
         @param table the id of the table accessed by the plan (can be resolved to a DbFile using {@link Catalog#getDatabaseFile}
@@ -189,34 +367,92 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Each call adds another aggregate expression; all of
+        them are computed in a single pass, grouped by every field added
+        here or via {@link #addGroupBy}.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        getAggOp(op);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to group the aggregates of the query by.  Each call
+        adds a less significant field to the composite group key.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** @return the position of the aggregate op(afield) among the aggregates
+        of the query, or -1 if it isn't one of them
+    */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a field that is less significant than the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Make the query return distinct tuples (SELECT DISTINCT); duplicates are removed
+        after any aggregation and before any ORDER BY, which may then only use fields of the
+        select list.
+        @param distinct true if duplicate output tuples should be removed
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    /** Run the scans of the plan, with their filters, in {@link PipelineStage}s
+        of their own, overlapping reading the tables with the rest of the plan.
+        @param pipelined true if scans should run on threads of their own
+    */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /** Add a LIMIT ... OFFSET clause to the plan; it applies after any ORDER BY.
+        @param limit the maximum number of tuples to return, or {@link Limit#NO_LIMIT}
+        @param offset the number of leading tuples to skip
+    */
+    public void addLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -292,12 +528,17 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        // scans return only the fields the rest of the plan reads
+        Map<String, Set<String>> required = requiredFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] columns = required == null ? null
+                         : scanColumns(file.getTupleDesc(), required.get(table.alias));
+                 ss = new SeqScan(t, file.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -309,6 +550,8 @@ public class LogicalPlan {
 
         }
 
+        // the filters of each table are applied as one conjunction
+        Map<String, List<Predicate>> conjunctions = new LinkedHashMap<>();
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -335,7 +578,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            conjunctions.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,7 +587,21 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        for (Map.Entry<String, List<Predicate>> c : conjunctions.entrySet()) {
+            subplanMap.put(c.getKey(), new Filter(c.getValue(), subplanMap.get(c.getKey())));
+        }
         
+        // semi-joins only drop tuples of their table, so they are applied
+        // to it before it is joined with others
+        for (LogicalSemiJoinNode sj : semiJoins) {
+            if (sj.t1Alias == null)
+                continue;
+            OpIterator subplan = subplanMap.get(sj.t1Alias);
+            if (subplan == null)
+                throw new ParsingException("Unknown table in WHERE clause " + sj.t1Alias);
+            subplanMap.put(sj.t1Alias, semiJoin(sj, subplan));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -382,6 +639,8 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            // joined rows are only copied once, by the operators above the joins
+            lateMaterialize(j);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -406,6 +665,10 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        for (LogicalSemiJoinNode sj : semiJoins) {
+            if (sj.t1Alias == null)
+                node = semiJoin(sj, node);
+        }
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -413,7 +676,10 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int a = aggregateIndex(si.aggOp, si.fname);
+                if (a < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                outFields.add(groupByFields.size() + a);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -425,16 +691,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,21 +728,112 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int a = 0; a < afields.length; a++) {
+                    afields[a] = td.fieldNameToIndex(aggFields.get(a));
+                    aops[a] = getAggOp(aggOps.get(a));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int g = 0; g < gfields.length; g++) {
+                    try {
+                        gfields[g] = td.fieldNameToIndex(groupByFields.get(g));
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  groupByFields.get(g) + " in GROUP BY statement");
+                    }
+                }
+                if (gfields.length == 0 && isLargeHeapScan(node)) {
+                    // a single group: the workers' partial aggregates are tiny
+                    aggNode = new ParallelAggregate((SeqScan) node, afields, gfields, aops,
+                                        ParallelAggregate.DEFAULT_WORKERS);
+                } else if (isGroupedBy(node, gfields)) {
+                    // one group at a time, instead of hashing them all
+                    aggNode = new StreamAggregate(node, afields, gfields, aops);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfields, aops);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (distinct) {
+            node = distinctNode(node, outFields);
         }
 
-        return new Project(outFields, outTypes, node);
+        if (!oByFields.isEmpty()) {
+            int[] oByIdxs = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int k = 0; k < oByIdxs.length; k++) {
+                oByIdxs[k] = node.getTupleDesc().fieldNameToIndex(oByFields.get(k));
+                asc[k] = oByAscs.get(k);
+            }
+            if (limit != Limit.NO_LIMIT) {
+                // only the first offset + limit tuples of the ordering are needed
+                node = new TopN(oByIdxs, asc, limit, offset, node);
+            } else {
+                node = new OrderBy(oByIdxs, asc, node);
+            }
+        }
+
+        if ((limit != Limit.NO_LIMIT || offset > 0) && !(node instanceof TopN)) {
+            node = new Limit(limit, offset, node);
+        }
+
+        OpIterator root = new Project(outFields, outTypes, node);
+        return pipelined ? PipelineStage.pipeline(root) : root;
+    }
+
+    /**
+     * @return the tuples of outer kept by the semi-join sj
+     */
+    private static OpIterator semiJoin(LogicalSemiJoinNode sj, OpIterator outer) throws ParsingException {
+        if (sj.subPlan == null)
+            throw new ParsingException("Invalid subquery.");
+        JoinPredicate p = null;
+        if (sj.f1QuantifiedName != null) {
+            try {
+                p = new JoinPredicate(outer.getTupleDesc().fieldNameToIndex(sj.f1QuantifiedName),
+                        Predicate.Op.EQUALS, 0);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field " + sj.f1QuantifiedName);
+            }
+        }
+        try {
+            return new HashSemiJoin(p, outer, sj.subPlan, sj.anti);
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(e);
+        }
+    }
+
+    /**
+     * @param outFields the fields of node the query returns
+     * @return node without tuples repeating the outFields of another one
+     */
+    private OpIterator distinctNode(OpIterator node, List<Integer> outFields) throws ParsingException {
+        for (String oByField : oByFields) {
+            if (!outFields.contains(node.getTupleDesc().fieldNameToIndex(oByField)))
+                throw new ParsingException("ORDER BY field " + oByField + " must appear in the SELECT DISTINCT list");
+        }
+        Set<Integer> keySet = new LinkedHashSet<>(outFields);
+        int[] keys = new int[keySet.size()];
+        int k = 0;
+        for (int f : keySet) {
+            keys[k++] = f;
+        }
+        // groups are already distinct on their group-by fields
+        if (hasAgg) {
+            boolean allGroups = true;
+            for (int g = 0; g < groupByFields.size(); g++) {
+                allGroups &= keySet.contains(g);
+            }
+            if (allGroups)
+                return node;
+        }
+        if (isGroupedBy(node, keys))
+            return new StreamDistinct(node, keys);
+        return new Distinct(node, keys);
     }
 
     public static void main(String[] argv) {
@@ -0,0 +1,41 @@
+package simpledb.optimizer;
+
+import simpledb.execution.OpIterator;
+
+/** A LogicalSemiJoinNode represents an IN or EXISTS subquery in a
+ * LogicalPlan, or their negations NOT IN and NOT EXISTS: the tuples of
+ * table t1Alias whose field f1 equals (or, for an anti-join, doesn't equal)
+ * the first field of some tuple of the subplan. Uncorrelated EXISTS
+ * subqueries have no table or field, and keep or drop all tuples.
+ */
+public class LogicalSemiJoinNode {
+
+    /** The alias of the table whose tuples are kept, or null */
+    public final String t1Alias;
+
+    /** The name of the field matched with the subplan, or null */
+    public final String f1PureName;
+
+    /** The table alias and field name of the field, or null */
+    public final String f1QuantifiedName;
+
+    /** The subplan whose first field is matched */
+    final OpIterator subPlan;
+
+    /** True for NOT IN and NOT EXISTS */
+    public final boolean anti;
+
+    public LogicalSemiJoinNode(String table1, String joinField1, OpIterator sp, boolean anti) {
+        t1Alias = table1;
+        if (joinField1 == null) {
+            f1PureName = null;
+            f1QuantifiedName = null;
+        } else {
+            String[] tmps = joinField1.split("[.]");
+            f1PureName = tmps[tmps.length - 1];
+            f1QuantifiedName = t1Alias + "." + f1PureName;
+        }
+        subPlan = sp;
+        this.anti = anti;
+    }
+}
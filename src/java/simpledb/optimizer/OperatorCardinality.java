@@ -2,6 +2,7 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.storage.TupleDesc;
 
 import java.util.Map;
 
@@ -31,47 +32,84 @@ public class OperatorCardinality {
                 } else if (o instanceof HashEquiJoin) {
                         return updateHashEquiJoinCardinality((HashEquiJoin) o,
                                         tableAliasToId, tableStats);
+                } else if (o instanceof IndexNestedLoopJoin) {
+                        return updateIndexNestedLoopJoinCardinality((IndexNestedLoopJoin) o,
+                                        tableAliasToId, tableStats);
                 } else if (o instanceof Aggregate) {
                         return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                                         tableStats);
+                } else if (o instanceof Limit) {
+                        Limit l = (Limit) o;
+                        return updateLimitCardinality(l, l.getLimit(), l.getOffset(),
+                                        tableAliasToId, tableStats);
+                } else if (o instanceof TopN) {
+                        TopN t = (TopN) o;
+                        return updateLimitCardinality(t, t.getLimit(), t.getOffset(),
+                                        tableAliasToId, tableStats);
                 } else {
-                        OpIterator[] children = o.getChildren();
-                        int childC = 1;
-                        boolean hasJoinPK = false;
-                        if (children.length > 0 && children[0] != null) {
-                                if (children[0] instanceof Operator) {
-                                        hasJoinPK = updateOperatorCardinality(
-                                                        (Operator) children[0], tableAliasToId, tableStats);
-                                        childC = ((Operator) children[0]).getEstimatedCardinality();
-                                } else if (children[0] instanceof SeqScan) {
-                                        childC = tableStats.get(
-                                                        ((SeqScan) children[0]).getTableName())
-                                                        .estimateTableCardinality(1.0);
-                                }
+                        return updatePassThroughCardinality(o, tableAliasToId, tableStats);
+                }
+        }
+
+        /**
+         * Gives o the cardinality of its (first) child.
+         */
+        private static boolean updatePassThroughCardinality(Operator o,
+                        Map<String, Integer> tableAliasToId,
+                        Map<String, TableStats> tableStats) {
+                OpIterator[] children = o.getChildren();
+                int childC = 1;
+                boolean hasJoinPK = false;
+                if (children.length > 0 && children[0] != null) {
+                        if (children[0] instanceof Operator) {
+                                hasJoinPK = updateOperatorCardinality(
+                                                (Operator) children[0], tableAliasToId, tableStats);
+                                childC = ((Operator) children[0]).getEstimatedCardinality();
+                        } else if (children[0] instanceof SeqScan) {
+                                childC = tableStats.get(
+                                                ((SeqScan) children[0]).getTableName())
+                                                .estimateTableCardinality(1.0);
                         }
-                        o.setEstimatedCardinality(childC);
-                        return hasJoinPK;
                 }
+                o.setEstimatedCardinality(childC);
+                return hasJoinPK;
+        }
+
+        private static boolean updateLimitCardinality(Operator o, int limit,
+                        int offset, Map<String, Integer> tableAliasToId,
+                        Map<String, TableStats> tableStats) {
+                boolean hasJoinPK = updatePassThroughCardinality(o, tableAliasToId,
+                                tableStats);
+                int card = Math.max(0, o.getEstimatedCardinality() - offset);
+                if (limit != Limit.NO_LIMIT)
+                        card = Math.min(card, limit);
+                o.setEstimatedCardinality(card);
+                return hasJoinPK;
         }
 
         private static boolean updateFilterCardinality(Filter f,
                         Map<String, Integer> tableAliasToId,
                         Map<String, TableStats> tableStats) {
                 OpIterator child = f.getChildren()[0];
-                Predicate pred = f.getPredicate();
-                String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                                .split("[.]");
-                String tableAlias = tmp[0];
-                String pureFieldName = tmp[1];
-                Integer tableId = tableAliasToId.get(tableAlias);
+                Integer tableId = null;
                 double selectivity = 1.0;
-                if (tableId != null) {
-                        selectivity = tableStats.get(
+                // conjuncts are assumed independent
+                for (Predicate pred : f.getPredicates()) {
+                        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                                        .split("[.]");
+                        String tableAlias = tmp[0];
+                        String pureFieldName = tmp[1];
+                        tableId = tableAliasToId.get(tableAlias);
+                        if (tableId == null)
+                                break;
+                        selectivity *= tableStats.get(
                                         Database.getCatalog().getTableName(tableId))
                                         .estimateSelectivity(
                                                         Database.getCatalog().getTupleDesc(tableId)
                                                                         .fieldNameToIndex(pureFieldName),
                                                         pred.getOp(), pred.getOperand());
+                }
+                if (tableId != null) {
                         if (child instanceof Operator) {
                                 Operator oChild = (Operator) child;
                                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -201,6 +239,61 @@ public class OperatorCardinality {
                 return child1HasJoinPK || child2HasJoinPK;
         }
 
+        private static boolean updateIndexNestedLoopJoinCardinality(IndexNestedLoopJoin j,
+                        Map<String, Integer> tableAliasToId,
+                        Map<String, TableStats> tableStats) {
+
+                OpIterator[] children = j.getChildren();
+                OpIterator child1 = children[0];
+                OpIterator child2 = children[1];
+                int child1Card = 1;
+                int child2Card = 1;
+
+                String[] tmp1 = j.getJoinField1Name().split("[.]");
+                String tableAlias1 = tmp1[0];
+                String pureFieldName1 = tmp1[1];
+                String[] tmp2 = j.getJoinField2Name().split("[.]");
+                String tableAlias2 = tmp2[0];
+                String pureFieldName2 = tmp2[1];
+
+                boolean child1HasJoinPK = Database.getCatalog()
+                                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                                .equals(pureFieldName1);
+                boolean child2HasJoinPK = Database.getCatalog()
+                                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                                .equals(pureFieldName2);
+
+                if (child1 instanceof Operator) {
+                        Operator child1O = (Operator) child1;
+                        boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                                        tableStats);
+                        child1HasJoinPK = pk || child1HasJoinPK;
+                        child1Card = child1O.getEstimatedCardinality();
+                        child1Card = child1Card > 0 ? child1Card : 1;
+                } else if (child1 instanceof SeqScan) {
+                        child1Card = tableStats.get(((SeqScan) child1)
+                                        .getTableName()).estimateTableCardinality(1.0);
+                }
+
+                if (child2 instanceof Operator) {
+                        Operator child2O = (Operator) child2;
+                        boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
+                                        tableStats);
+                        child2HasJoinPK = pk || child2HasJoinPK;
+                        child2Card = child2O.getEstimatedCardinality();
+                        child2Card = child2Card > 0 ? child2Card : 1;
+                } else if (child2 instanceof SeqScan) {
+                        child2Card = tableStats.get(((SeqScan) child2)
+                                        .getTableName()).estimateTableCardinality(1.0);
+                }
+
+                j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+                return child1HasJoinPK || child2HasJoinPK;
+        }
+
         private static boolean updateAggregateCardinality(Aggregate a,
                         Map<String, Integer> tableAliasToId,
                         Map<String, TableStats> tableStats) {
@@ -224,24 +317,29 @@ public class OperatorCardinality {
                                         .estimateTableCardinality(1.0);
                 }
 
-                String[] tmp = a.groupFieldName().split("[.]");
-                String tableAlias = tmp[0];
-                String pureFieldName = tmp[1];
-                Integer tableId = tableAliasToId.get(tableAlias);
+                // a composite group has at most the product of the numbers
+                // of distinct values of its fields
+                double groups = 1.0;
+                TupleDesc childTd = child.getTupleDesc();
+                for (int gfield : a.groupFields()) {
+                        String[] tmp = childTd.getFieldName(gfield).split("[.]");
+                        String tableAlias = tmp[0];
+                        String pureFieldName = tmp[1];
+                        Integer tableId = tableAliasToId.get(tableAlias);
 
-                double groupFieldAvgSelectivity = 1.0;
-                if (tableId != null) {
-                        groupFieldAvgSelectivity = tableStats.get(
+                        if (tableId == null) {
+                                a.setEstimatedCardinality(childCard);
+                                return hasJoinPK;
+                        }
+                        double groupFieldAvgSelectivity = tableStats.get(
                                         Database.getCatalog().getTableName(tableId))
                                         .avgSelectivity(
                                                         Database.getCatalog().getTupleDesc(tableId)
                                                                         .fieldNameToIndex(pureFieldName),
                                                         Predicate.Op.EQUALS);
-                        a.setEstimatedCardinality((int) (Math.min(childCard,
-                                        1.0 / groupFieldAvgSelectivity)));
-                        return hasJoinPK;
+                        groups *= 1.0 / groupFieldAvgSelectivity;
                 }
-                a.setEstimatedCardinality(childCard);
+                a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
                 return hasJoinPK;
         }
 }
@@ -3,7 +3,9 @@ package simpledb.optimizer;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.StringJoiner;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -12,12 +14,18 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String SEMI_JOIN = "⋉";
+    static final String ANTI_JOIN = "▷";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
+    static final String DISTINCT = "δ";
+    static final String PIPELINE = "pipe";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -29,7 +37,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof IndexNestedLoopJoin || o instanceof HashSemiJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -66,16 +75,7 @@ public class QueryPlanVisualizer {
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
         if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
-            // TupleDesc td = s.getTupleDesc();
-            if (!tableName.equals(alias))
-                alias = " " + alias;
-            else
-                alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+            thisNode.text = nodeText(queryPlan);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -108,14 +108,7 @@ public class QueryPlanVisualizer {
             OpIterator[] children = plan.getChildren();
 
             if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getP();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2, j.getEstimatedCardinality());
+                thisNode.text = nodeText(plan);
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = JOIN.length() / 2;
@@ -137,14 +130,7 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2, j.getEstimatedCardinality());
+                thisNode.text = nodeText(plan);
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -164,23 +150,55 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof HashSemiJoin) {
+                String op = ((HashSemiJoin) plan).isAnti() ? ANTI_JOIN : SEMI_JOIN;
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (op.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = op.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - op.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (INDEX_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = INDEX_JOIN.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - INDEX_JOIN.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
                 int upBarShift = parentUpperBarStartShift;
-                String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
-
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(), a.getEstimatedCardinality());
-                    alignTxt = td.getFieldName(0);
-                } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(), a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
-                }
+                String alignTxt = a.groupFields().length == 0
+                        ? a.getTupleDesc().getFieldName(0) : GROUPBY;
+                thisNode.text = nodeText(plan);
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
 
@@ -196,12 +214,7 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
-                Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(), f.getEstimatedCardinality());
+                thisNode.text = nodeText(plan);
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -217,13 +230,7 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),
-                        o.getEstimatedCardinality());
+                thisNode.text = nodeText(plan);
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,15 +245,72 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = ORDERBY.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - ORDERBY.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof PipelineStage) {
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (PIPELINE.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = PIPELINE.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - PIPELINE.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Distinct) {
+                thisNode.text = nodeText(plan);
+                int upBarShift = parentUpperBarStartShift;
+                if (DISTINCT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = DISTINCT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - DISTINCT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
-                Project p = (Project) plan;
-                StringBuilder fields = new StringBuilder();
-                Iterator<TDItem> it = p.getTupleDesc().iterator();
-                while (it.hasNext())
-                    fields.append(it.next().fieldName).append(",");
-                fields = new StringBuilder(fields.substring(0, fields.length() - 1));
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),
-                        p.getEstimatedCardinality());
+                thisNode.text = nodeText(plan);
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -333,6 +397,156 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /**
+     * @return the text describing the operator at the root of plan, with
+     *         its estimated cardinality
+     */
+    static String nodeText(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            String tableName = s.getTableName();
+            String alias = s.getAlias();
+            if (!tableName.equals(alias))
+                alias = " " + alias;
+            else
+                alias = "";
+            if (s.isProjected()) {
+                // the fields the scan returns
+                TupleDesc tableTd = Database.getCatalog().getTupleDesc(s.getTableId());
+                StringJoiner fields = new StringJoiner(",", ",fields=", "");
+                for (int c : s.getColumns())
+                    fields.add(tableTd.getFieldName(c));
+                alias += fields;
+            }
+            return String.format("%1$s(%2$s)", SCAN, tableName + alias);
+        }
+        if (!(plan instanceof Operator))
+            return plan.getClass().getSimpleName();
+
+        Operator op = (Operator) plan;
+        OpIterator[] children = op.getChildren();
+        int card = op.getEstimatedCardinality();
+        if (op instanceof Join || op instanceof HashEquiJoin || op instanceof IndexNestedLoopJoin) {
+            JoinPredicate jp;
+            String name;
+            if (op instanceof Join) {
+                jp = ((Join) op).getP();
+                name = JOIN;
+            } else if (op instanceof HashEquiJoin) {
+                jp = ((HashEquiJoin) op).getJoinPredicate();
+                name = HASH_JOIN;
+            } else {
+                jp = ((IndexNestedLoopJoin) op).getJoinPredicate();
+                name = INDEX_JOIN;
+            }
+            TupleDesc td = op.getTupleDesc();
+            String field1 = td.getFieldName(jp.getField1());
+            String field2 = td.getFieldName(jp.getField2()
+                    + children[0].getTupleDesc().numFields());
+            return String.format("%1$s(%2$s),card:%3$d", name,
+                    field1 + jp.getOperator() + field2, card);
+        } else if (op instanceof HashSemiJoin) {
+            HashSemiJoin j = (HashSemiJoin) op;
+            JoinPredicate jp = j.getJoinPredicate();
+            String pred = jp == null ? "exists"
+                    : children[0].getTupleDesc().getFieldName(jp.getField1()) + jp.getOperator()
+                            + children[1].getTupleDesc().getFieldName(jp.getField2());
+            return String.format("%1$s(%2$s),card:%3$d",
+                    j.isAnti() ? ANTI_JOIN : SEMI_JOIN, pred, card);
+        } else if (op instanceof Aggregate) {
+            Aggregate a = (Aggregate) op;
+            TupleDesc childTd = children[0].getTupleDesc();
+            int[] gfields = a.groupFields();
+            String text;
+            if (gfields.length == 0)
+                text = String.format("%1$s,card:%2$d", aggregatesText(childTd, a), card);
+            else
+                text = String.format("%1$s(%2$s), %3$s,card:%4$d", GROUPBY,
+                        fieldsText(childTd, gfields), aggregatesText(childTd, a), card);
+            if (a instanceof ParallelAggregate)
+                text += ",workers:" + ((ParallelAggregate) a).getWorkers();
+            else if (a instanceof StreamAggregate)
+                text += ",streaming";
+            return text;
+        } else if (op instanceof Filter) {
+            StringBuilder preds = new StringBuilder();
+            for (Predicate p : ((Filter) op).getPredicates()) {
+                if (preds.length() > 0)
+                    preds.append(" AND ");
+                preds.append(children[0].getTupleDesc().getFieldName(p.getField()))
+                        .append(p.getOp()).append(p.getOperand());
+            }
+            return String.format("%1$s(%2$s),card:%3$d", SELECT, preds, card);
+        } else if (op instanceof OrderBy) {
+            OrderBy o = (OrderBy) op;
+            return String.format("%1$s(%2$s),card:%3$d", ORDERBY,
+                    orderByText(children[0].getTupleDesc(), o.getOrderByFields(), o.getAscending()),
+                    card);
+        } else if (op instanceof TopN) {
+            TopN o = (TopN) op;
+            return String.format("%1$s(%2$s),%3$s(%4$d,%5$d),card:%6$d", ORDERBY,
+                    orderByText(children[0].getTupleDesc(), o.getOrderByFields(), o.getAscending()),
+                    LIMIT, o.getLimit(), o.getOffset(), card);
+        } else if (op instanceof Limit) {
+            Limit o = (Limit) op;
+            return String.format("%1$s(%2$d,%3$d),card:%4$d", LIMIT, o.getLimit(), o.getOffset(),
+                    card);
+        } else if (op instanceof Distinct) {
+            Distinct d = (Distinct) op;
+            String text = String.format("%1$s(%2$s),card:%3$d", DISTINCT,
+                    fieldsText(children[0].getTupleDesc(), d.getKeyFields()), card);
+            return d instanceof StreamDistinct ? text + ",streaming" : text;
+        } else if (op instanceof PipelineStage) {
+            PipelineStage p = (PipelineStage) op;
+            return String.format("%1$s(batch:%2$d,queue:%3$d),card:%4$d", PIPELINE,
+                    p.getBatchSize(), p.getQueueBatches(), card);
+        } else if (op instanceof Project) {
+            StringJoiner fields = new StringJoiner(",");
+            Iterator<TDItem> it = op.getTupleDesc().iterator();
+            while (it.hasNext())
+                fields.add(it.next().fieldName);
+            return String.format("%1$s(%2$s),card:%3$d", PROJECT, fields, card);
+        }
+        return String.format("%1$s,card:%2$d", op.getClass().getSimpleName(), card);
+    }
+
+    /**
+     * @return the sort fields, comma separated, with descending ones marked
+     */
+    private static String fieldsText(TupleDesc td, int[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(td.getFieldName(fields[i]));
+        }
+        return sb.toString();
+    }
+
+    private static String aggregatesText(TupleDesc td, Aggregate a) {
+        int[] afields = a.aggregateFields();
+        Aggregator.Op[] aops = a.aggregateOps();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < afields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(aops[i]).append("(").append(td.getFieldName(afields[i])).append(")");
+        }
+        return sb.toString();
+    }
+
+    private static String orderByText(TupleDesc td, int[] fields, boolean[] asc) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(td.getFieldName(fields[i]));
+            if (!asc[i])
+                sb.append(" desc");
+        }
+        return sb.toString();
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
@@ -391,6 +605,51 @@ public class QueryPlanVisualizer {
         return sb.reverse().toString();
     }
 
+    /**
+     * Describe a plan measured by {@link ProfiledOperator#profile} once it
+     * has run, one operator per line, indented under its parent: the
+     * estimates of the optimizer next to what the operator actually did.
+     * Operators measured with their parent have no measurements of their
+     * own.
+     */
+    public String getAnalyzedPlanTree(OpIterator profiledPlan) {
+        StringBuilder sb = new StringBuilder();
+        appendAnalyzed(profiledPlan, 0, sb);
+        return sb.toString();
+    }
+
+    private static void appendAnalyzed(OpIterator plan, int depth, StringBuilder sb) {
+        ProfiledOperator profile = null;
+        if (plan instanceof ProfiledOperator) {
+            profile = (ProfiledOperator) plan;
+            plan = profile.getChild();
+        }
+        for (int i = 0; i < depth; i++)
+            sb.append(SPACE);
+        sb.append(nodeText(plan));
+        if (plan instanceof SeqScan) {
+            TableStats stats = TableStats.getTableStats(((SeqScan) plan).getTableName());
+            if (stats != null)
+                sb.append(",card:").append(stats.totalTuples());
+        }
+        if (profile != null) {
+            long cpu = profile.getCpuNanos();
+            sb.append(String.format("  rows=%d loops=%d time=%.3fms cpu=%s pages=%d hits=%d misses=%d",
+                    profile.getRows(), profile.getLoops(), profile.getWallNanos() / 1e6,
+                    cpu < 0 ? "n/a" : String.format("%.3fms", cpu / 1e6),
+                    profile.getPageRequests(), profile.getPageHits(), profile.getPageMisses()));
+        } else {
+            sb.append("  (measured with parent)");
+        }
+        sb.append('\n');
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null)
+                    appendAnalyzed(child, depth + 1, sb);
+            }
+        }
+    }
+
     public void printQueryPlanTree(OpIterator physicalPlan, PrintStream out) {
         if (out == null)
             out = System.out;
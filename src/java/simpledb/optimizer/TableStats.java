@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -91,7 +92,7 @@ public class TableStats {
     public TableStats(int tableid, int ioCostPerPage) {
         this.file = Database.getCatalog().getDatabaseFile(tableid);
         this.td = file.getTupleDesc();
-        this.pageNum = ((HeapFile) file).numPages();
+        this.pageNum = file instanceof BTreeFile ? ((BTreeFile) file).numPages() : ((HeapFile) file).numPages();
         this.ioCostPerPage = ioCostPerPage;
         int numFields = td.numFields();
         this.histograms = new Object[numFields];
@@ -8,8 +8,17 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -19,6 +28,12 @@ import java.util.List;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages missing from the cache are read from disk outside of the
+ * BufferPool's monitor, so that a session waiting for a read doesn't hold up
+ * those whose pages are cached. Concurrent requests for a page being read
+ * wait for that read. Evicted pages are still written under the monitor,
+ * which {@link LogFile} relies on.
  * 
  * @Threadsafe, all fields are final
  */
@@ -38,6 +53,18 @@ public class BufferPool {
 
     private TransactionId currentTransactionId;
 
+    // the pages being read from disk, guarded by this
+    private final Map<PageId, CompletableFuture<Page>> loading = new HashMap<>();
+
+    // per table, bumped whenever tuples of the table are inserted or deleted
+    private final Map<Integer, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    // the tables each running transaction has modified
+    private final Map<TransactionId, Set<Integer>> modifiedTables = new ConcurrentHashMap<>();
+
+    // calls to getPage, and those answered from the cache
+    private final AtomicLong pageRequests = new AtomicLong();
+    private final AtomicLong pageHits = new AtomicLong();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -56,8 +83,12 @@ public class BufferPool {
         return pageSize;
     }
 
-    public void addPage(PageId id, Page page) throws DbException {
+    public synchronized void addPage(PageId id, Page page) throws DbException {
         this.pages.put(id, page);
+        // keep a free slot, as getPage does
+        if (this.pages.getSize() == this.pages.getCapacity()) {
+            evictPage();
+        }
     }
 
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
@@ -88,23 +119,86 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        Page targetPage = this.pages.get(pid);
-        if (targetPage != null) {
-            // page in cache
-            return targetPage;
-        } else {
-            // page not in cache
+        pageRequests.incrementAndGet();
+        CompletableFuture<Page> load;
+        boolean reading;
+        synchronized (this) {
+            Page targetPage = this.pages.get(pid);
+            if (targetPage != null) {
+                // page in cache
+                pageHits.incrementAndGet();
+                return targetPage;
+            }
+            load = loading.get(pid);
+            reading = load == null;
+            if (reading) {
+                load = new CompletableFuture<>();
+                loading.put(pid, load);
+            }
+        }
+        if (!reading && !Thread.holdsLock(this)) {
+            // page being read by another request, which needs the monitor
+            // to finish, so callers holding it read the page themselves
+            return awaitLoad(load);
+        }
+
+        // page not in cache: read it without holding the monitor
+        Page newPage;
+        try {
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page newPage = dbFile.readPage(pid);
-            if (newPage == null) {
-                return null;
+            newPage = dbFile.readPage(pid);
+        } catch (RuntimeException e) {
+            if (reading) {
+                synchronized (this) {
+                    loading.remove(pid);
+                }
+                load.completeExceptionally(e);
             }
-            this.pages.put(pid, newPage);
-            if (this.pages.getSize() == this.pages.getCapacity()) {
-                evictPage();
+            throw e;
+        }
+        try {
+            synchronized (this) {
+                if (reading)
+                    loading.remove(pid);
+                Page added = this.pages.get(pid);
+                if (added != null) {
+                    // added while it was being read
+                    newPage = added;
+                } else if (newPage != null) {
+                    this.pages.put(pid, newPage);
+                    if (this.pages.getSize() == this.pages.getCapacity()) {
+                        evictPage();
+                    }
+                }
             }
-            return newPage;
+        } finally {
+            if (reading)
+                load.complete(newPage);
         }
+        return newPage;
+    }
+
+    /**
+     * Wait for a page another request is reading.
+     */
+    private static Page awaitLoad(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new DbException("failed to read page: " + e.getCause());
+        }
+    }
+
+    /** Return the number of pages requested through getPage so far */
+    public long getPageRequests() {
+        return pageRequests.get();
+    }
+
+    /** Return the number of those pages that were in the buffer pool */
+    public long getPageHits() {
+        return pageHits.get();
     }
 
     /**
@@ -127,8 +221,7 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -148,6 +241,40 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<Integer> tables = modifiedTables.remove(tid);
+        if (tables != null) {
+            for (int tableId : tables) {
+                bumpTableVersion(tableId);
+            }
+        }
+    }
+
+    /**
+     * Return the version of the specified table, which changes whenever
+     * tuples are inserted into or deleted from the table through this buffer
+     * pool, and again when the transaction that did so completes. Results
+     * computed from a table stay valid as long as its version doesn't
+     * change.
+     *
+     * @param tableId the table to get the version of
+     */
+    public long getTableVersion(int tableId) {
+        AtomicLong version = tableVersions.get(tableId);
+        return version == null ? 0 : version.get();
+    }
+
+    private void bumpTableVersion(int tableId) {
+        tableVersions.computeIfAbsent(tableId, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Record that tid modified the specified table. The version is bumped
+     * right away, so that tid doesn't read results computed before its own
+     * changes, and again when tid completes.
+     */
+    private void tableModified(TransactionId tid, int tableId) {
+        bumpTableVersion(tableId);
+        modifiedTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
     }
 
     /**
@@ -173,6 +300,25 @@ public class BufferPool {
         for (Page dirtyPage : dirtyPages) {
             dirtyPage.markDirty(true, tid);
         }
+        tableModified(tid, tableId);
+    }
+
+    /**
+     * Add tuples to the specified table on behalf of transaction tid, with
+     * {@link DbFile#insertTuples}, marking each page dirtied once.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     * @see #insertTuple(TransactionId, int, Tuple)
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> dirtyPages = Database.getCatalog().getDatabaseFile(tableId).insertTuples(tid, tuples);
+        for (Page dirtyPage : dirtyPages) {
+            dirtyPage.markDirty(true, tid);
+        }
+        tableModified(tid, tableId);
     }
 
     /**
@@ -199,6 +345,36 @@ public class BufferPool {
         for (Page dirtyPage : dirtyPages) {
             dirtyPage.markDirty(true, tid);
         }
+        tableModified(tid, tableId);
+    }
+
+    /**
+     * Remove tuples from the tables they belong to, with
+     * {@link DbFile#deleteTuples} once per table, marking each page dirtied
+     * once.
+     *
+     * @param tid    the transaction deleting the tuples
+     * @param tuples the tuples to delete
+     * @see #deleteTuple(TransactionId, Tuple)
+     */
+    public void deleteTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<Integer, List<Tuple>> byTable = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (t.getRecordId() == null)
+                throw new DbException("tuple is not stored in any table");
+            byTable.computeIfAbsent(t.getRecordId().getPageId().getTableId(),
+                    k -> new ArrayList<>()).add(t);
+        }
+        for (Map.Entry<Integer, List<Tuple>> table : byTable.entrySet()) {
+            List<Page> dirtyPages = Database.getCatalog().getDatabaseFile(table.getKey())
+                    .deleteTuples(tid, table.getValue().iterator());
+            for (Page dirtyPage : dirtyPages) {
+                dirtyPage.markDirty(true, tid);
+            }
+            tableModified(tid, table.getKey());
+        }
     }
 
     /**
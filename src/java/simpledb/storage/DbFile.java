@@ -49,6 +49,27 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts tuples into the file on behalf of a transaction, like calling
+     * {@link #insertTuple} for each of them. Files may do better by filling
+     * each page they modify at once.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add. They should be updated to reflect that
+     *               they are now stored in this file.
+     * @return the pages that were modified, each listed once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Set<Page> modified = new LinkedHashSet<>();
+        while (tuples.hasNext()) {
+            modified.addAll(insertTuple(tid, tuples.next()));
+        }
+        return new ArrayList<>(modified);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -65,6 +86,26 @@ public interface DbFile {
     List<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Removes tuples from the file on behalf of a transaction, like calling
+     * {@link #deleteTuple} for each of them. Files may do better by visiting
+     * each page once for all the tuples it holds.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to delete
+     * @return the pages that were modified, each listed once
+     * @throws DbException if a tuple cannot be deleted or is not a member
+     *                     of the file
+     */
+    default List<Page> deleteTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Set<Page> modified = new LinkedHashSet<>();
+        while (tuples.hasNext()) {
+            modified.addAll(deleteTuple(tid, tuples.next()));
+        }
+        return new ArrayList<>(modified);
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
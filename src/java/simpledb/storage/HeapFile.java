@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.PredicateCompiler;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -22,9 +23,17 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * Number of new pages filled in memory by {@link #insertTuples} before
+     * they are appended to the file with one write.
+     */
+    public static final int NEW_PAGE_BATCH = 16;
+
     private File file;
     private TupleDesc td;
     private int fileId = 0;
+    // the pages before this one are known to be full
+    private int firstFreePage = 0;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -107,6 +116,8 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         int pageDiffernce = page.getId().getPageNumber() * BufferPool.getPageSize();
         byte[] data = page.getPageData();
+        // the page may have free slots now
+        firstFreePage = Math.min(firstFreePage, page.getId().getPageNumber());
         try (RandomAccessFile rAccessFile = new RandomAccessFile(file, "rw");) {
             rAccessFile.seek(pageDiffernce);
             rAccessFile.write(data);
@@ -134,14 +145,15 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         BufferPool bufferPool = Database.getBufferPool();
-        int i = 0;
+        int i = firstFreePage;
         for (; i < numPages(); i++) {
-            HeapPage p = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), i), null);
-            try {
-                p.insertTuple(t);
-            } catch (DbException e) {
+            HeapPage p = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (p.getNumEmptySlots() == 0) {
+                if (i == firstFreePage)
+                    firstFreePage++;
                 continue;
             }
+            p.insertTuple(t);
             return Arrays.asList(p);
         }
         // 尝试分配一个新页
@@ -153,6 +165,60 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
     }
 
+    /**
+     * Inserts tuples into the file, filling the pages with free slots in
+     * order, each visited once, then appending new pages. New pages are
+     * filled in memory and written {@link #NEW_PAGE_BATCH} at a time.
+     *
+     * @see DbFile#insertTuples
+     */
+    @Override
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Page> modified = new ArrayList<>();
+        int n = numPages();
+        for (int i = firstFreePage; i < n && tuples.hasNext(); i++) {
+            HeapPage p = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (p.getNumEmptySlots() > 0) {
+                while (p.getNumEmptySlots() > 0 && tuples.hasNext())
+                    p.insertTuple(tuples.next());
+                modified.add(p);
+            }
+            if (p.getNumEmptySlots() == 0 && i == firstFreePage)
+                firstFreePage++;
+        }
+
+        List<HeapPage> batch = new ArrayList<>();
+        while (tuples.hasNext()) {
+            HeapPage p = new HeapPage(new HeapPageId(getId(), n + batch.size()),
+                    HeapPage.createEmptyPageData());
+            while (p.getNumEmptySlots() > 0 && tuples.hasNext())
+                p.insertTuple(tuples.next());
+            batch.add(p);
+            if (batch.size() == NEW_PAGE_BATCH || !tuples.hasNext()) {
+                appendPages(batch);
+                for (HeapPage added : batch)
+                    bufferPool.addPage(added.getId(), added);
+                modified.addAll(batch);
+                n += batch.size();
+                batch.clear();
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Write consecutive new pages at the end of the file.
+     */
+    private void appendPages(List<HeapPage> pages) throws IOException {
+        try (RandomAccessFile rAccessFile = new RandomAccessFile(file, "rw")) {
+            rAccessFile.seek((long) pages.get(0).getId().getPageNumber() * BufferPool.getPageSize());
+            for (HeapPage p : pages)
+                rAccessFile.write(p.getPageData());
+        }
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -160,9 +226,142 @@ public class HeapFile implements DbFile {
         BufferPool bufferPool = Database.getBufferPool();
         HeapPage p = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         p.deleteTuple(t);
+        firstFreePage = Math.min(firstFreePage, p.getId().getPageNumber());
         return Arrays.asList(p);
     }
 
+    /**
+     * Removes tuples from the file, sorted by RecordId so that each page
+     * holding some of them is fetched once and has all of them removed.
+     *
+     * @see DbFile#deleteTuples
+     */
+    @Override
+    public List<Page> deleteTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        List<RecordId> rids = new ArrayList<>();
+        while (tuples.hasNext()) {
+            RecordId rid = tuples.next().getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != getId())
+                throw new DbException("tuple is not in this file");
+            rids.add(rid);
+        }
+        rids.sort(Comparator.comparingInt((RecordId rid) -> rid.getPageId().getPageNumber())
+                .thenComparingInt(RecordId::getTupleNumber));
+
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Page> modified = new ArrayList<>();
+        HeapPage p = null;
+        for (RecordId rid : rids) {
+            if (p == null || !p.getId().equals(rid.getPageId())) {
+                p = (HeapPage) bufferPool.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+                modified.add(p);
+            }
+            p.deleteSlot(rid.getTupleNumber());
+        }
+        if (!rids.isEmpty())
+            firstFreePage = Math.min(firstFreePage, rids.get(0).getPageId().getPageNumber());
+        return modified;
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file,
+     * so that disjoint ranges can be scanned concurrently.
+     *
+     * @param fromPage the number of the first page to scan
+     * @param toPage   one past the number of the last page to scan
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        return iterator(tid, fromPage, toPage, null);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples of this file. The
+     * tuples returned only hold the given fields, in the given order.
+     *
+     * @param columns the indexes of the fields to return, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return pageRangeIterator(tid, 0, -1, columns, null);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples of this file that
+     * pass a filter. The filter is tested on the records of each page before
+     * they are decoded, so tuples failing it are never built.
+     *
+     * @param columns the indexes of the fields to return, or null for all
+     * @param filter  the predicates over the fields of the file tuples must
+     *                pass
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns,
+            PredicateCompiler.SlotFilter filter) {
+        return pageRangeIterator(tid, 0, -1, columns, filter);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples of a range of pages
+     * of this file.
+     *
+     * @param columns the indexes of the fields to return, or null for all
+     * @see #iterator(TransactionId, int, int)
+     * @see #iterator(TransactionId, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage, int[] columns) {
+        if (fromPage < 0 || fromPage > toPage)
+            throw new IllegalArgumentException("invalid page range " + fromPage + ".." + toPage);
+        return pageRangeIterator(tid, fromPage, toPage, columns, null);
+    }
+
+    /**
+     * @param toPage one past the last page to scan, or -1 to scan to the end
+     *               of the file as of when the iterator is opened
+     */
+    private DbFileIterator pageRangeIterator(TransactionId tid, int fromPage, int toPage,
+            int[] columns, PredicateCompiler.SlotFilter filter) {
+        final TupleDesc projected = columns == null ? null : td.project(columns);
+        return new AbstractDbFileIterator() {
+            // -1 while closed
+            private int pagePos = -1;
+            private int endPage;
+            private Iterator<Tuple> pageIterator;
+
+            @Override
+            public void open() {
+                pagePos = fromPage;
+                endPage = toPage < 0 ? numPages() : toPage;
+                pageIterator = null;
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (pagePos < 0)
+                    return null;
+                while (pageIterator == null || !pageIterator.hasNext()) {
+                    if (pagePos >= endPage)
+                        return null;
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(getId(), pagePos++), Permissions.READ_ONLY);
+                    pageIterator = page.iterator(columns, projected, filter);
+                }
+                return pageIterator.next();
+            }
+
+            @Override
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                pagePos = -1;
+                pageIterator = null;
+            }
+        };
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
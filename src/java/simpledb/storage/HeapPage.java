@@ -3,15 +3,22 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.PredicateCompiler;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
  *
+ * The tuples of a page are decoded from the bytes read from disk the first
+ * time they are needed, so a scan whose filter was pushed down to the page
+ * (see {@link #iterator(int[], TupleDesc, PredicateCompiler.SlotFilter)})
+ * only decodes the tuples passing it.
+ *
  * @see HeapFile
  * @see BufferPool
  *
@@ -21,7 +28,10 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final BitSet header;
-    final Tuple[] tuples;
+    // the bytes the page was read from; a slot holding a tuple that is still
+    // null in tuples is decoded from them when first needed
+    final byte[] data;
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
     private TransactionId cuurent;
     byte[] oldData;
@@ -51,21 +61,10 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-        // allocate and read the header slots of this page
-        byte[] header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-        this.header = BitSet.valueOf(header);
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        this.data = data;
+        // read the header slots of this page; the records are read lazily
+        this.header = BitSet.valueOf(Arrays.copyOf(data, getHeaderSize()));
+        tuples = new AtomicReferenceArray<>(numSlots);
 
         setBeforeImage();
 
@@ -129,21 +128,32 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the record in the given slot
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private int slotOffset(int slotId) {
+        return getHeaderSize() + slotId * td.getSize();
+    }
+
+    /**
+     * @return the tuple in a used slot, decoding it if it hasn't been yet
+     */
+    private Tuple tuple(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null) {
+            // concurrent readers may both decode the slot; either copy will do
+            t = readTuple(slotId);
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
         }
+        return t;
+    }
+
+    /**
+     * Decode the tuple in a slot from the page data.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, slotOffset(slotId), td.getSize()));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -177,7 +187,9 @@ public class HeapPage implements Page {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
-        byte[] headerBytes = header.toByteArray();
+        // BitSet.toByteArray() stops at the last set bit; the header always
+        // takes getHeaderSize() bytes
+        byte[] headerBytes = Arrays.copyOf(header.toByteArray(), getHeaderSize());
         // create the header of the page
         for (byte b : headerBytes) {
             try {
@@ -189,7 +201,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        for (int i = 0; i < numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -204,9 +216,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot, not decoded since it was read
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
 
@@ -217,7 +238,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (headerBytes.length + td.getSize() * tuples.length); // -
+        int zerolen = BufferPool.getPageSize() - (headerBytes.length + td.getSize() * numSlots); // -
                                                                                                       // numSlots
                                                                                                       // *
         // td.getSize();
@@ -266,8 +287,16 @@ public class HeapPage implements Page {
         RecordId rid = t.getRecordId();
         if (rid == null || !rid.getPageId().equals(pid))
             throw new DbException("tuple is not on this page");
-        int slot = rid.getTupleNumber();
-        if (!isSlotUsed(slot))
+        deleteSlot(rid.getTupleNumber());
+    }
+
+    /**
+     * Delete the tuple in the specified slot from the page.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public void deleteSlot(int slot) throws DbException {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
             throw new DbException("tuple slot is not exist");
         markSlotUsed(slot, false);
     }
@@ -288,7 +317,7 @@ public class HeapPage implements Page {
             throw new DbException("page is full");
         markSlotUsed(slot, true);
         t.setRecordId(new RecordId(pid, slot));
-        tuples[slot] = t;
+        tuples.set(slot, t);
     }
 
     /**
@@ -355,8 +384,35 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        return iterator(null, null, null);
+    }
+
+    /**
+     * @param columns   the fields to keep, or null to keep them all
+     * @param projected the TupleDesc of the kept fields, as given by
+     *                  {@link TupleDesc#project}
+     * @param filter    a filter over the fields of the table, tested on the
+     *                  record bytes of the tuples not decoded yet, or null
+     * @return an iterator over the used slots of this page holding tuples
+     *         that pass filter, returning tuples of the given fields only,
+     *         with the RecordIds of the stored tuples (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc projected,
+            PredicateCompiler.SlotFilter filter) {
         return new Iterator<Tuple>() {
-            private int next = header.nextSetBit(0);
+            private int next = nextPassing(header.nextSetBit(0));
+
+            private int nextPassing(int slot) {
+                if (filter == null)
+                    return slot;
+                for (; slot != -1; slot = header.nextSetBit(slot + 1)) {
+                    Tuple t = tuples.get(slot);
+                    if (t == null ? filter.test(data, slotOffset(slot)) : filter.test(t))
+                        return slot;
+                }
+                return -1;
+            }
 
             @Override
             public boolean hasNext() {
@@ -367,9 +423,16 @@ public class HeapPage implements Page {
             public Tuple next() {
                 if (next == -1)
                     throw new NoSuchElementException();
-                Tuple nextValue = tuples[next];
-                next = header.nextSetBit(next + 1);
-                return nextValue;
+                Tuple nextValue = tuple(next);
+                next = nextPassing(header.nextSetBit(next + 1));
+                if (columns == null)
+                    return nextValue;
+                Tuple narrow = new Tuple(projected);
+                for (int i = 0; i < columns.length; i++) {
+                    narrow.setField(i, nextValue.getField(columns[i]));
+                }
+                narrow.setRecordId(nextValue.getRecordId());
+                return narrow;
             }
 
             @Override
@@ -0,0 +1,73 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A read-only view of two tuples concatenated, as output by a join that
+ * materializes late: the fields of the joined tuples are looked up in them
+ * rather than copied, so rows of a multi-way join only have their fields
+ * copied once, by the operator that builds its own tuples from them
+ * (usually the final {@link simpledb.execution.Project}).
+ * <p>
+ * A view has no RecordId, and its fields can't be set.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int leftWidth;
+
+    /**
+     * @param td    the merged TupleDesc of the two tuples
+     * @param left  the tuple providing the first fields
+     * @param right the tuple providing the remaining fields
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.leftWidth = left.getTupleDesc().numFields();
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("joined tuples are read-only");
+    }
+
+    @Override
+    public Field getField(int i) {
+        return i < leftWidth ? left.getField(i) : right.getField(i - leftWidth);
+    }
+
+    @Override
+    public int getInt(int i) {
+        return i < leftWidth ? left.getInt(i) : right.getInt(i - leftWidth);
+    }
+
+    @Override
+    public String getString(int i) {
+        return i < leftWidth ? left.getString(i) : right.getString(i - leftWidth);
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        int n = getTupleDesc().numFields();
+        List<Field> all = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            all.add(getField(i));
+        return all.iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            sb.append(getField(i).toString()).append('\t');
+        }
+        return sb.toString();
+    }
+}
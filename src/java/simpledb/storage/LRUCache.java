@@ -55,11 +55,11 @@ public class LRUCache<K, V> {
         DLinkedNode node = new DLinkedNode(key, value);
         cache.put(key, node);
         if (size < capacity) {
-            DLinkedNode last = tail.prev;
-            last.next = node;
-            node.next = tail;
-            node.prev = last;
-            tail.prev = node;
+            // the most recently used node is at the head
+            node.next = head.next;
+            node.prev = head;
+            head.next.prev = node;
+            head.next = node;
             size++;
         } else {
             throw new DbException("cache is full!");
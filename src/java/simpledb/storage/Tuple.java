@@ -30,6 +30,14 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * Create a tuple whose fields are held by a subclass.
+     */
+    Tuple(TupleDesc td, ArrayList<Field> fields) {
+        this.td = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,6 +92,20 @@ public class Tuple implements Serializable {
         return this.fields.get(i);
     }
 
+    /**
+     * @return the value of the ith field, which must be an int
+     */
+    public int getInt(int i) {
+        return ((IntField) this.fields.get(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string
+     */
+    public String getString(int i) {
+        return ((StringField) this.fields.get(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -199,6 +199,22 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(newItems);
     }
 
+    /**
+     * Project a TupleDesc onto some of its fields.
+     *
+     * @param fields
+     *            the indexes of the fields to keep, in the order they should
+     *            have in the new TupleDesc
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] fields) {
+        ArrayList<TDItem> newItems = new ArrayList<>(fields.length);
+        for (int f : fields) {
+            newItems.add(tdItems.get(f));
+        }
+        return new TupleDesc(newItems);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * TupleSpillFile is a temporary, append-only file of tuples sharing one
+ * TupleDesc, used by operators that have to move intermediate results out of
+ * memory (sorted runs, hash partitions, ...). Tuples are written with
+ * {@link Field#serialize} and read back in the order they were added; their
+ * RecordIds are not preserved.
+ * <p>
+ * A spill file is written once, then {@link #finish()}ed and read any number
+ * of times with {@link #reader()}. It is removed by {@link #delete()}, or at
+ * the latest when the JVM exits.
+ */
+public class TupleSpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Create a new, empty spill file for tuples of the given schema.
+     *
+     * @throws DbException if the temporary file can't be created
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb_spill", ".dat");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("couldn't create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added to this file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a tuple to the end of the file.
+     *
+     * @throws IllegalStateException if the file has been finished
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file already finished");
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("couldn't write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Flush and close the writer; no more tuples may be added afterwards.
+     */
+    public void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("couldn't write spill file: " + e.getMessage());
+        } finally {
+            out = null;
+        }
+    }
+
+    /**
+     * @return a new reader positioned at the first tuple of the file
+     * @throws IllegalStateException if the file hasn't been finished
+     */
+    public Reader reader() throws DbException {
+        if (out != null)
+            throw new IllegalStateException("spill file not finished");
+        try {
+            return new Reader();
+        } catch (IOException e) {
+            throw new DbException("couldn't read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the underlying file. Open readers must not be used afterwards.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Sequential reader over the tuples of a spill file.
+     */
+    public class Reader implements Closeable {
+        private final DataInputStream in;
+        private int remaining = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * @return the next tuple of the file, or null if there are no more
+         */
+        public Tuple next() throws DbException {
+            if (remaining == 0)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("couldn't read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written through this stream
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.BloomFilter;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every added key is reported as present.
+   */
+  @Test public void noFalseNegatives() {
+    BloomFilter f = new BloomFilter(5000);
+    for (int i = 0; i < 5000; i++) {
+      f.add(new IntField(i * 7919));
+      f.add(new StringField("key" + i, Type.STRING_LEN));
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(f.mightContain(new IntField(i * 7919)));
+      assertTrue(f.mightContain(new StringField("key" + i, Type.STRING_LEN)));
+    }
+  }
+
+  /**
+   * Few keys that were never added are reported as present.
+   */
+  @Test public void fewFalsePositives() {
+    BloomFilter f = new BloomFilter(10000);
+    for (int i = 0; i < 10000; i++) {
+      f.add(new IntField(i));
+    }
+    int falsePositives = 0;
+    for (int i = 10000; i < 110000; i++) {
+      if (f.mightContain(new IntField(i)))
+        falsePositives++;
+    }
+    // about 1% expected
+    assertTrue("false positives: " + falsePositives, falsePositives < 3000);
+  }
+
+  /**
+   * An empty filter contains nothing.
+   */
+  @Test public void empty() {
+    BloomFilter f = new BloomFilter(0);
+    for (int i = -100; i < 100; i++) {
+      assertTrue(!f.mightContain(new IntField(i)));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
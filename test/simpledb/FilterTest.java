@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -126,6 +128,20 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() on a conjunction of predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Filter op = new Filter(Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3))), scan);
+    assertEquals(2, op.getPredicates().size());
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-2, 3, testWidth);
+    op.open();
+    TestUtil.compareDbIterators(op, expectedOut);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
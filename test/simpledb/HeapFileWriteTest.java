@@ -7,12 +7,15 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +53,87 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples()
+     */
+    @Test public void insertTuples() throws Exception {
+        // 504 tuples fit on a page
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1100; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        List<Page> modified = empty.insertTuples(tid, tuples.iterator());
+        assertEquals(3, modified.size());
+        assertEquals(3, empty.numPages());
+        // pages are filled in order
+        for (int i = 0; i < tuples.size(); ++i) {
+            assertEquals(i / 504, tuples.get(i).getRecordId().getPageId().getPageNumber());
+            assertEquals(i % 504, tuples.get(i).getRecordId().getTupleNumber());
+        }
+
+        // free slots are reused before new pages are added
+        empty.deleteTuple(tid, tuples.get(100));
+        Tuple more = Utility.getHeapTuple(7, 2);
+        modified = empty.insertTuples(tid, Arrays.asList(more).iterator());
+        assertEquals(1, modified.size());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 100), more.getRecordId());
+        assertEquals(3, empty.numPages());
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(1100, count);
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuples()
+     */
+    @Test public void deleteTuples() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1100; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        empty.insertTuples(tid, tuples.iterator());
+
+        // every other tuple, out of order, from pages 2 and 0
+        List<Tuple> doomed = new ArrayList<>();
+        for (int i = 1099; i >= 0; i -= 2) {
+            if (i / 504 != 1)
+                doomed.add(tuples.get(i));
+        }
+        List<Page> modified = empty.deleteTuples(tid, doomed.iterator());
+        assertEquals(2, modified.size());
+        assertEquals(0, modified.get(0).getId().getPageNumber());
+        assertEquals(2, modified.get(1).getId().getPageNumber());
+        assertEquals(252, ((HeapPage) modified.get(0)).getNumEmptySlots());
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(1100 - doomed.size(), count);
+
+        // the freed slots are reused first
+        Tuple more = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, more);
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 1), more.getRecordId());
+
+        // a tuple that was already deleted
+        try {
+            empty.deleteTuples(tid, Arrays.asList(doomed.get(0)).iterator());
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
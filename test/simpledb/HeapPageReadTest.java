@@ -3,6 +3,8 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -102,6 +104,34 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator() with a pushed down filter and
+     * projection
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        TupleDesc td = Utility.getTupleDesc(2);
+        int[] columns = new int[] { 1 };
+        PredicateCompiler.SlotFilter filter = PredicateCompiler.compile(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000))), td);
+        Iterator<Tuple> it = page.iterator(columns, td.project(columns), filter);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] <= 20000 || EXAMPLE_VALUES[row][1] >= 50000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(1, tup.getTupleDesc().numFields());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            assertEquals(row, tup.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+
+        // the undecoded records are written back unchanged
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
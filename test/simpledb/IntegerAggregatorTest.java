@@ -1,18 +1,26 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +190,122 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over enough groups to grow its hash table, with
+   * negative and colliding keys
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 2000;
+    int[] data = new int[groups * 3 * 2];
+    int n = 0;
+    for (int rep = 0; rep < 3; rep++) {
+      for (int g = 0; g < groups; g++) {
+        data[n++] = (g - groups / 2) * 65536;
+        data[n++] = rep;
+      }
+    }
+    OpIterator scan = TestUtil.createTupleList(2, data);
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    int[] expected = new int[groups * 2];
+    for (int g = 0; g < groups; g++) {
+      expected[2 * g] = (g - groups / 2) * 65536;
+      expected[2 * g + 1] = 0 + 1 + 2;
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, expected), it);
+    it.rewind();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
+  /**
+   * Test that SUM and AVG don't overflow while accumulating, and that a SUM
+   * too large for an int field is reported rather than wrapped
+   */
+  @Test public void overflowSafeSums() throws Exception {
+    int big = Integer.MAX_VALUE;
+    OpIterator scan = TestUtil.createTupleList(2,
+        new int[] { 1, big, 1, big, 1, -big, 2, big, 2, big });
+
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      sum.mergeTupleIntoGroup(t);
+      avg.mergeTupleIntoGroup(t);
+    }
+
+    OpIterator it = avg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new int[] { 1, big / 3, 2, big }), it);
+
+    it = sum.iterator();
+    it.open();
+    // group 1 sums back into range
+    Tuple first = it.next();
+    assertEquals(big, ((IntField) first.getField(1)).getValue());
+    try {
+      it.next();
+      fail("expected SUM of group 2 to overflow");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  static List<String> drainSorted(OpIterator it) throws Exception {
+    List<String> out = new ArrayList<>();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Test that IntegerAggregator gives the same results when its groups don't
+   * fit in memory, including partitions that have to be split again
+   */
+  @Test public void spillingGroups() throws Exception {
+    Random rand = new Random(42);
+    int[] data = new int[20000 * 2];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = rand.nextInt(5000) - 2500;
+      data[i + 1] = rand.nextInt(1000) - 500;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      IntegerAggregator inMemory = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator spilling = new IntegerAggregator(0, Type.INT_TYPE, 1, op, 50);
+      OpIterator scan = TestUtil.createTupleList(2, data);
+      scan.open();
+      while (scan.hasNext()) {
+        Tuple t = scan.next();
+        inMemory.mergeTupleIntoGroup(t);
+        spilling.mergeTupleIntoGroup(t);
+      }
+
+      OpIterator expected = inMemory.iterator();
+      expected.open();
+      List<String> expectedGroups = drainSorted(expected);
+      OpIterator it = spilling.iterator();
+      it.open();
+      assertEquals(expectedGroups, drainSorted(it));
+      it.rewind();
+      assertEquals(expectedGroups, drainSorted(it));
+      it.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
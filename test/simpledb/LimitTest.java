@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  final int testWidth = 3;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new TestUtil.MockScan(0, 10, testWidth);
+  }
+
+  /**
+   * Unit test for Limit.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Limit op = new Limit(3, 0, scan);
+    assertEquals(Utility.getTupleDesc(testWidth), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit and no offset
+   */
+  @Test public void limitOnly() throws Exception {
+    Limit op = new Limit(3, 0, scan);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 3, testWidth), op);
+    // the child is not read past the limit
+    assertTrue(scan.hasNext());
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit and an offset
+   */
+  @Test public void limitAndOffset() throws Exception {
+    Limit op = new Limit(4, 5, scan);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(5, 9, testWidth), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with only an offset
+   */
+  @Test public void offsetOnly() throws Exception {
+    Limit op = new Limit(Limit.NO_LIMIT, 7, scan);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(7, 10, testWidth), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with limits of zero and past the end
+   */
+  @Test public void edgeCases() throws Exception {
+    Limit op = new Limit(0, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    op = new Limit(100, 8, scan);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(8, 10, testWidth), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Limit op = new Limit(2, 1, scan);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(1, 3, testWidth), op);
+    op.rewind();
+    Tuple expected = Utility.getHeapTuple(1, testWidth);
+    assertTrue(TestUtil.compareTuples(expected, op.next()));
+    op.close();
+  }
+
+  /**
+   * Unit test for the LIMIT/OFFSET clause handled by Parser
+   */
+  @Test public void parseLimitClause() throws Exception {
+    Parser p = new Parser();
+    assertEquals("select * from t;", p.stripLimitClause("select * from t;"));
+    assertEquals("select * from t;", p.stripLimitClause("select * from t LIMIT 10;"));
+    assertEquals("select * from t order by t.a;",
+        p.stripLimitClause("select * from t order by t.a limit 5 offset 20;"));
+    assertEquals("select * from t", p.stripLimitClause("select * from t offset 3 \n"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+  private static final int[] INTS = { Integer.MIN_VALUE, -1, 0, 1, 2, Integer.MAX_VALUE };
+  private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "ba" };
+
+  private static Tuple tuple(int a, String b) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(a));
+    t.setField(1, new StringField(b, Type.STRING_LEN));
+    return t;
+  }
+
+  private static List<Tuple> tuples() {
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i : INTS)
+      for (String s : STRINGS)
+        tuples.add(tuple(i, s));
+    return tuples;
+  }
+
+  private static List<Field> operands() {
+    List<Field> operands = new ArrayList<>();
+    for (int i : INTS)
+      operands.add(new IntField(i));
+    for (String s : STRINGS)
+      operands.add(new StringField(s, Type.STRING_LEN));
+    return operands;
+  }
+
+  /**
+   * Compiled predicates accept the same tuples as Predicate.filter, for every
+   * operator and type.
+   */
+  @Test public void matchesPredicate() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (Field operand : operands()) {
+        int field = operand.getType() == Type.INT_TYPE ? 0 : 1;
+        Predicate p = new Predicate(field, op, operand);
+        PredicateCompiler.TupleFilter f = PredicateCompiler.compile(p);
+        for (Tuple t : tuples()) {
+          assertEquals(p + " on " + t, p.filter(t), f.test(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiled join predicates accept the same pairs as JoinPredicate.filter.
+   */
+  @Test public void matchesJoinPredicate() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int field = 0; field < 2; field++) {
+        JoinPredicate p = new JoinPredicate(field, op, field);
+        PredicateCompiler.TuplePairFilter f =
+            PredicateCompiler.compile(p, TD.getFieldType(field));
+        for (Tuple t1 : tuples()) {
+          for (Tuple t2 : tuples()) {
+            assertEquals(p.filter(t1, t2), f.test(t1, t2));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiled predicates accept the same serialized records as Predicate.filter
+   * accepts once they are decoded, including strings that aren't ASCII.
+   */
+  @Test public void matchesPredicateOnRecords() throws Exception {
+    List<Tuple> tuples = tuples();
+    tuples.add(tuple(0, "\u00e9t\u00e9"));
+    List<Field> operands = operands();
+    operands.add(new StringField("\u00e9", Type.STRING_LEN));
+    for (Tuple t : tuples) {
+      // the record starts at an offset, as it does on a page
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bytes);
+      dos.writeByte(7);
+      for (int i = 0; i < TD.numFields(); i++)
+        t.getField(i).serialize(dos);
+      byte[] record = bytes.toByteArray();
+
+      DataInputStream dis = new DataInputStream(
+          new ByteArrayInputStream(record, 1, TD.getSize()));
+      Tuple decoded = new Tuple(TD);
+      for (int i = 0; i < TD.numFields(); i++)
+        decoded.setField(i, TD.getFieldType(i).parse(dis));
+
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Field operand : operands) {
+          int field = operand.getType() == Type.INT_TYPE ? 0 : 1;
+          Predicate p = new Predicate(field, op, operand);
+          PredicateCompiler.SlotFilter f =
+              PredicateCompiler.compile(Collections.singletonList(p), TD);
+          assertEquals(p + " on " + decoded, p.filter(decoded), f.test(record, 1));
+          assertEquals(p + " on " + decoded, p.filter(decoded), f.test(decoded));
+        }
+      }
+    }
+  }
+
+  /**
+   * Conjunctions accept the tuples all their predicates accept.
+   */
+  @Test public void conjunction() {
+    List<Predicate> conjuncts = Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1)),
+        new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(1)),
+        new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN)));
+    PredicateCompiler.TupleFilter f = PredicateCompiler.compile(conjuncts);
+    for (Tuple t : tuples()) {
+      boolean expected = true;
+      for (Predicate p : conjuncts)
+        expected &= p.filter(t);
+      assertEquals(expected, f.test(t));
+    }
+    assertTrue(f.test(tuple(0, "ab")));
+    assertFalse(f.test(tuple(2, "ab")));
+    assertFalse(f.test(tuple(1, "a")));
+
+    assertTrue(PredicateCompiler.compile(Collections.<Predicate>emptyList())
+        .test(tuple(0, "")));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
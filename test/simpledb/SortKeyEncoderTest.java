@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortKeyEncoder;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortKeyEncoderTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+  private static final int[] INTS = { Integer.MIN_VALUE, -65536, -256, -1, 0,
+      1, 255, 256, 65536, Integer.MAX_VALUE };
+  private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "a\u0000",
+      "a\u0000b", "\u0000", "Ā", "ÿ", "￿", "ba" };
+
+  private static Tuple tuple(int a, String b, int c) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(a));
+    t.setField(1, new StringField(b, Type.STRING_LEN));
+    t.setField(2, new IntField(c));
+    return t;
+  }
+
+  /** Reference ordering using Field.compare, as OrderBy used to sort. */
+  private static int compareFields(Tuple t1, Tuple t2, int[] fields, boolean[] asc) {
+    for (int i = 0; i < fields.length; i++) {
+      Field f1 = t1.getField(fields[i]);
+      Field f2 = t2.getField(fields[i]);
+      if (f1.compare(Predicate.Op.EQUALS, f2))
+        continue;
+      int c = f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+      return asc[i] ? c : -c;
+    }
+    return 0;
+  }
+
+  private static void checkAllPairs(Tuple[] tuples, int[] fields, boolean[] asc) {
+    SortKeyEncoder enc = new SortKeyEncoder(TD, fields, asc);
+    byte[][] keys = new byte[tuples.length][];
+    for (int i = 0; i < tuples.length; i++)
+      keys[i] = enc.encode(tuples[i]);
+    for (int i = 0; i < tuples.length; i++) {
+      for (int j = 0; j < tuples.length; j++) {
+        assertEquals(tuples[i] + " vs " + tuples[j],
+            Integer.signum(compareFields(tuples[i], tuples[j], fields, asc)),
+            Integer.signum(SortKeyEncoder.compare(keys[i], keys[j])));
+      }
+    }
+  }
+
+  /**
+   * Unit test for keys of single int fields, including the extremes
+   */
+  @Test public void intKeys() {
+    Tuple[] tuples = new Tuple[INTS.length];
+    for (int i = 0; i < INTS.length; i++)
+      tuples[i] = tuple(INTS[i], "", 0);
+    checkAllPairs(tuples, new int[] { 0 }, new boolean[] { true });
+    checkAllPairs(tuples, new int[] { 0 }, new boolean[] { false });
+  }
+
+  /**
+   * Unit test for keys of single string fields, including prefixes and
+   * embedded zero characters
+   */
+  @Test public void stringKeys() {
+    Tuple[] tuples = new Tuple[STRINGS.length];
+    for (int i = 0; i < STRINGS.length; i++)
+      tuples[i] = tuple(0, STRINGS[i], 0);
+    checkAllPairs(tuples, new int[] { 1 }, new boolean[] { true });
+    checkAllPairs(tuples, new int[] { 1 }, new boolean[] { false });
+  }
+
+  /**
+   * Unit test for keys of several fields in mixed orders
+   */
+  @Test public void multiFieldKeys() {
+    Random r = new Random(42);
+    Tuple[] tuples = new Tuple[300];
+    for (int i = 0; i < tuples.length; i++) {
+      tuples[i] = tuple(INTS[r.nextInt(4)], STRINGS[r.nextInt(STRINGS.length)],
+          INTS[r.nextInt(INTS.length)]);
+    }
+    checkAllPairs(tuples, new int[] { 1, 0, 2 }, new boolean[] { true, false, true });
+    checkAllPairs(tuples, new int[] { 0, 1, 2 }, new boolean[] { false, false, true });
+    checkAllPairs(tuples, new int[] { 2, 1 }, new boolean[] { false, true });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortKeyEncoderTest.class);
+  }
+}
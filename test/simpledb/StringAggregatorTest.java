@@ -9,8 +9,12 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
 import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 public class StringAggregatorTest extends SimpleDbTestBase {
@@ -112,6 +116,81 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator grouped on a string field, over enough groups to
+   * grow its hash table
+   */
+  @Test
+  public void stringGroups() throws Exception {
+    int groups = 2000;
+    Object[] data = new Object[groups * 2 * 2];
+    Object[] expected = new Object[groups * 2];
+    for (int g = 0; g < groups; g++) {
+      data[4 * g] = "group" + g;
+      data[4 * g + 1] = "x";
+      data[4 * g + 2] = "group" + g;
+      data[4 * g + 3] = "y";
+      expected[2 * g] = "group" + g;
+      expected[2 * g + 1] = 2;
+    }
+    OpIterator scan = TestUtil.createTupleList(2, data);
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, expected), it);
+  }
+
+  /**
+   * Test that StringAggregator gives the same counts when its groups don't
+   * fit in memory
+   */
+  @Test
+  public void spillingStringGroups() throws Exception {
+    int groups = 3000;
+    Object[] data = new Object[groups * 3 * 2];
+    int n = 0;
+    for (int rep = 0; rep < 3; rep++) {
+      for (int g = 0; g < groups; g++) {
+        data[n++] = "group" + g;
+        data[n++] = "x";
+      }
+    }
+    OpIterator scan = TestUtil.createTupleList(2, data);
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT, 10);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    // collect the groups rather than matching tuple by tuple: every rewind
+    // aggregates the spilled partitions again
+    OpIterator it = agg.iterator();
+    it.open();
+    for (int pass = 0; pass < 2; pass++) {
+      Map<String, Integer> counts = new HashMap<>();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        String key = ((StringField) t.getField(0)).getValue();
+        assertNull(counts.put(key, ((IntField) t.getField(1)).getValue()));
+      }
+      assertEquals(groups, counts.size());
+      for (int g = 0; g < groups; g++)
+        assertEquals(Integer.valueOf(3), counts.get("group" + g));
+      it.rewind();
+    }
+    it.close();
+  }
+
+  /**
+   * Test that StringAggregator rejects aggregates other than COUNT
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void onlyCount() {
+    new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /**
+   * @return rows (key, position) tuples with keys drawn from [0, maxKey)
+   */
+  private static TupleIterator randomTuples(int rows, int maxKey) {
+    Random r = new Random(rows * 31L + maxKey);
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = r.nextInt(maxKey);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Checks TopN against OrderBy followed by Limit, including the order of
+   * ties (the second field records the input position).
+   */
+  private void validate(int rows, int maxKey, boolean asc, int limit, int offset)
+      throws Exception {
+    TopN topN = new TopN(0, asc, limit, offset, randomTuples(rows, maxKey));
+    OpIterator expected = new Limit(limit, offset,
+        new OrderBy(0, asc, randomTuples(rows, maxKey)));
+    topN.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, topN);
+    topN.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, topN);
+    topN.close();
+    expected.close();
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc() and getters
+   */
+  @Test public void getters() {
+    TopN op = new TopN(1, false, 5, 2, randomTuples(10, 3));
+    assertEquals(1, op.getOrderByField());
+    assertEquals(5, op.getLimit());
+    assertEquals(2, op.getOffset());
+    assertEquals(2, op.getTupleDesc().numFields());
+  }
+
+  @Test public void ascending() throws Exception {
+    validate(1000, 1000, true, 10, 0);
+  }
+
+  @Test public void descending() throws Exception {
+    validate(1000, 1000, false, 10, 0);
+  }
+
+  @Test public void ties() throws Exception {
+    validate(1000, 5, true, 50, 0);
+    validate(1000, 5, false, 50, 0);
+  }
+
+  @Test public void offset() throws Exception {
+    validate(1000, 100, true, 20, 30);
+  }
+
+  @Test public void limitBeyondInput() throws Exception {
+    validate(10, 100, true, 50, 0);
+    validate(10, 100, true, 50, 20);
+  }
+
+  @Test public void zeroLimit() throws Exception {
+    TopN op = new TopN(0, true, 0, 0, randomTuples(10, 100));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -31,6 +31,32 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for JoinedTuple, a view of two tuples concatenated
+     */
+    @Test public void joinedTuple() {
+        Tuple left = new Tuple(Utility.getTupleDesc(2));
+        left.setField(0, new IntField(1));
+        left.setField(1, new IntField(2));
+        Tuple right = new Tuple(Utility.getTupleDesc(1));
+        right.setField(0, new IntField(3));
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+
+        Tuple joined = new JoinedTuple(td, left, right);
+        assertEquals(td, joined.getTupleDesc());
+        assertEquals(new IntField(2), joined.getField(1));
+        assertEquals(3, joined.getInt(2));
+        assertEquals("1\t2\t3\t", joined.toString());
+
+        // views of views
+        Tuple twice = new JoinedTuple(TupleDesc.merge(td, td), joined, joined);
+        assertEquals(new IntField(1), twice.getField(3));
+        assertEquals(new IntField(3), twice.getField(5));
+        java.util.Iterator<Field> fields = twice.fields();
+        for (int i = 0; i < 6; i++)
+            assertEquals(twice.getField(i), fields.next());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares scanning heap pages fresh from disk and filtering the decoded
+ * tuples, against pushing the filter down to the pages, which tests it on
+ * the records and only decodes the tuples passing it.
+ * <p>
+ * Usage: java simpledb.execution.PageFilterBenchmark [rows] [rounds]
+ */
+public class PageFilterBenchmark {
+
+    private static final int COLUMNS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Random r = new Random(0);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (int c = 0; c < COLUMNS; c++)
+                t.add(r.nextInt(1000));
+            tuples.add(t);
+        }
+        File file = File.createTempFile("pagefilter", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), COLUMNS);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile table = new HeapFile(file, td);
+        Database.getCatalog().addTable(table, "pagefilter");
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int numPages = bytes.length / BufferPool.getPageSize();
+        byte[][] pages = new byte[numPages][];
+        for (int i = 0; i < numPages; i++)
+            pages[i] = Arrays.copyOfRange(bytes, i * BufferPool.getPageSize(),
+                    (i + 1) * BufferPool.getPageSize());
+
+        int[] selectivities = { 1, 10, 50 };
+        for (int percent : selectivities) {
+            List<Predicate> conjuncts = Arrays.asList(
+                    new Predicate(0, Predicate.Op.LESS_THAN, new IntField(percent * 10)));
+            PredicateCompiler.TupleFilter tupleFilter = PredicateCompiler.compile(conjuncts);
+            PredicateCompiler.SlotFilter slotFilter = PredicateCompiler.compile(conjuncts, td);
+            long decodedBest = Long.MAX_VALUE;
+            long pushedBest = Long.MAX_VALUE;
+            int matches = 0;
+            // the first round warms up the JIT
+            for (int round = 0; round <= rounds; round++) {
+                long start = System.nanoTime();
+                int m1 = 0;
+                for (int i = 0; i < numPages; i++) {
+                    Iterator<Tuple> it = new HeapPage(new HeapPageId(table.getId(), i), pages[i]).iterator();
+                    while (it.hasNext()) {
+                        if (tupleFilter.test(it.next()))
+                            m1++;
+                    }
+                }
+                long decoded = System.nanoTime() - start;
+                start = System.nanoTime();
+                int m2 = 0;
+                for (int i = 0; i < numPages; i++) {
+                    Iterator<Tuple> it = new HeapPage(new HeapPageId(table.getId(), i), pages[i])
+                            .iterator(null, null, slotFilter);
+                    while (it.hasNext()) {
+                        it.next();
+                        m2++;
+                    }
+                }
+                long pushed = System.nanoTime() - start;
+                if (m1 != m2)
+                    throw new IllegalStateException("pushed down filter disagrees");
+                matches = m1;
+                if (round > 0) {
+                    decodedBest = Math.min(decodedBest, decoded);
+                    pushedBest = Math.min(pushedBest, pushed);
+                }
+            }
+            System.out.printf("%3d%% selective  decode+filter %7.1f ms  pushed down %7.1f ms  (%.2fx, %d rows)%n",
+                    percent, decodedBest / 1e6, pushedBest / 1e6,
+                    (double) decodedBest / pushedBest, matches);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares filtering tuples with {@link Predicate#filter}, which goes through
+ * Field.compare and a switch on the operator for every tuple, against
+ * filtering them with predicates compiled by {@link PredicateCompiler}.
+ * <p>
+ * Usage: java simpledb.execution.PredicateBenchmark [rows] [rounds]
+ */
+public class PredicateBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private static Tuple[] randomTuples(int rows, Random r) {
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(100)));
+            t.setField(1, new StringField("name" + r.nextInt(1000), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt()));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    // the number of matches is returned so that the JIT can't drop the loops
+    private static int filterInterpreted(Tuple[] tuples, List<Predicate> conjuncts) {
+        int matches = 0;
+        for (Tuple t : tuples) {
+            boolean pass = true;
+            for (Predicate p : conjuncts) {
+                if (!p.filter(t)) {
+                    pass = false;
+                    break;
+                }
+            }
+            if (pass)
+                matches++;
+        }
+        return matches;
+    }
+
+    private static int filterCompiled(Tuple[] tuples, PredicateCompiler.TupleFilter f) {
+        int matches = 0;
+        for (Tuple t : tuples) {
+            if (f.test(t))
+                matches++;
+        }
+        return matches;
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Random r = new Random(0);
+        Tuple[] tuples = randomTuples(rows, r);
+
+        List<List<Predicate>> sets = Arrays.asList(
+                Arrays.asList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50))),
+                Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)),
+                        new Predicate(2, Predicate.Op.LESS_THAN, new IntField(0))),
+                Arrays.asList(new Predicate(1, Predicate.Op.EQUALS,
+                        new StringField("name500", Type.STRING_LEN))),
+                Arrays.asList(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(3)),
+                        new Predicate(1, Predicate.Op.LIKE, new StringField("9", Type.STRING_LEN))));
+        String[] names = { "int <", "int >= AND int <", "string =", "int <> AND string LIKE" };
+
+        for (int s = 0; s < sets.size(); s++) {
+            PredicateCompiler.TupleFilter compiled = PredicateCompiler.compile(sets.get(s));
+            long interpretedBest = Long.MAX_VALUE;
+            long compiledBest = Long.MAX_VALUE;
+            int matches = 0;
+            // the first round warms up the JIT
+            for (int i = 0; i <= rounds; i++) {
+                long start = System.nanoTime();
+                int m1 = filterInterpreted(tuples, sets.get(s));
+                long interpreted = System.nanoTime() - start;
+                start = System.nanoTime();
+                int m2 = filterCompiled(tuples, compiled);
+                long comp = System.nanoTime() - start;
+                if (m1 != m2)
+                    throw new IllegalStateException("compiled predicate disagrees");
+                matches = m1;
+                if (i > 0) {
+                    interpretedBest = Math.min(interpretedBest, interpreted);
+                    compiledBest = Math.min(compiledBest, comp);
+                }
+            }
+            System.out.printf("WHERE %-24s interpreted %7.1f ms  compiled %7.1f ms  (%.2fx, %d rows)%n",
+                    names[s], interpretedBest / 1e6, compiledBest / 1e6,
+                    (double) interpretedBest / compiledBest, matches);
+        }
+    }
+}
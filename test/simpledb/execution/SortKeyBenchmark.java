@@ -0,0 +1,93 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares sorting tuples with {@link TupleComparator}, which calls
+ * Field.compare up to twice per field per comparison, against sorting them on
+ * normalized keys from {@link SortKeyEncoder}, including the time to encode
+ * the keys.
+ * <p>
+ * Usage: java simpledb.execution.SortKeyBenchmark [rows] [rounds]
+ */
+public class SortKeyBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private static final class KeyedTuple {
+        final byte[] key;
+        final Tuple tuple;
+
+        KeyedTuple(byte[] key, Tuple tuple) {
+            this.key = key;
+            this.tuple = tuple;
+        }
+    }
+
+    private static Tuple[] randomTuples(int rows, Random r) {
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(100)));
+            t.setField(1, new StringField("name" + r.nextInt(1000), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt()));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    private static long sortWithComparator(Tuple[] input, int[] fields, boolean[] asc) {
+        Tuple[] tuples = input.clone();
+        long start = System.nanoTime();
+        Arrays.sort(tuples, new TupleComparator(fields, asc));
+        return System.nanoTime() - start;
+    }
+
+    private static long sortWithKeys(Tuple[] input, int[] fields, boolean[] asc) {
+        long start = System.nanoTime();
+        SortKeyEncoder encoder = new SortKeyEncoder(TD, fields, asc);
+        KeyedTuple[] keyed = new KeyedTuple[input.length];
+        for (int i = 0; i < input.length; i++) {
+            keyed[i] = new KeyedTuple(encoder.encode(input[i]), input[i]);
+        }
+        Arrays.sort(keyed, (Comparator<KeyedTuple>) (kt1, kt2) ->
+                SortKeyEncoder.compare(kt1.key, kt2.key));
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Random r = new Random(0);
+        Tuple[] tuples = randomTuples(rows, r);
+
+        int[][] fieldSets = { { 2 }, { 0, 2 }, { 0, 1, 2 } };
+        boolean[][] ascSets = { { true }, { true, false }, { false, true, true } };
+        String[] names = { "int", "int, int desc", "int desc, string, int" };
+
+        for (int s = 0; s < fieldSets.length; s++) {
+            long cmpBest = Long.MAX_VALUE;
+            long keyBest = Long.MAX_VALUE;
+            // the first round warms up the JIT
+            for (int i = 0; i <= rounds; i++) {
+                long cmp = sortWithComparator(tuples, fieldSets[s], ascSets[s]);
+                long key = sortWithKeys(tuples, fieldSets[s], ascSets[s]);
+                if (i > 0) {
+                    cmpBest = Math.min(cmpBest, cmp);
+                    keyBest = Math.min(keyBest, key);
+                }
+            }
+            System.out.printf("ORDER BY %-22s comparator %7.1f ms  keys %7.1f ms  (%.2fx)%n",
+                    names[s], cmpBest / 1e6, keyBest / 1e6, (double) cmpBest / keyBest);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,9 +21,16 @@ import simpledb.transaction.TransactionId;
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, List<List<Integer>> expectedResult)
             throws DbException, TransactionAbortedException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult,
+                Aggregate.DEFAULT_MEMORY_PAGES);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn,
+            List<List<Integer>> expectedResult, int memoryPages)
+            throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
-        Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation, memoryPages);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -83,17 +91,77 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, ROWS, MAX_VALUE, Aggregate.DEFAULT_MEMORY_PAGES);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int rows, int maxValue, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         List<List<Integer>> createdTuples = new ArrayList<>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
-                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+                COLUMNS, rows, maxValue, null, createdTuples);
 
         // Compute the expected answer
         List<List<Integer>> expected =
                 aggregate(createdTuples, operation, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        validateAggregate(table, operation, 1, groupColumn, expected, memoryPages);
+    }
+
+    @Test public void testSpillingSum() throws IOException, DbException, TransactionAbortedException {
+        // one page holds about a hundred int groups
+        doAggregate(Aggregator.Op.SUM, 0, 10000, 3000, 1);
+    }
+
+    @Test public void testSpillingAverage() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.AVG, 0, 10000, 3000, 1);
+    }
+
+    /**
+     * Computes COUNT, SUM, MIN, MAX and AVG of column 1 grouped on columns 0
+     * and 2 in one pass, and checks them against the same aggregates computed
+     * in Java.
+     */
+    private void doMultiAggregate(int rows, int maxValue, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, rows, maxValue, null, createdTuples);
+        Aggregator.Op[] ops = {Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+
+        Map<List<Integer>, List<Integer>> values = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            List<Integer> key = new ArrayList<>();
+            key.add(t.get(0));
+            key.add(t.get(2));
+            values.computeIfAbsent(key, k -> new ArrayList<>()).add(t.get(1));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<Integer>> e : values.entrySet()) {
+            List<Integer> result = new ArrayList<>(e.getKey());
+            for (Aggregator.Op op : ops) result.add(computeAggregate(e.getValue(), op));
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        int[] afields = new int[ops.length];
+        Arrays.fill(afields, 1);
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                afields, new int[] {0, 2}, ops, memoryPages);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMultipleAggregatesCompositeGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        doMultiAggregate(ROWS, 8, Aggregate.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testSpillingMultipleAggregatesCompositeGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        doMultiAggregate(10000, 100, 1);
     }
 
     @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
@@ -0,0 +1,200 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Distinct;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamDistinct;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DistinctTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * @return the distinct values of fields among tuples
+     */
+    private static Set<List<Integer>> keys(List<List<Integer>> tuples, int[] fields) {
+        Set<List<Integer>> keys = new LinkedHashSet<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> key = new ArrayList<>();
+            for (int f : fields)
+                key.add(t.get(f));
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Checks that Distinct returns exactly one tuple of the table for each
+     * distinct key.
+     */
+    private void validate(int[] fields, int maxValue, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, maxValue, null, tuples);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> actual = drain(new Distinct(
+                new SeqScan(tid, table.getId(), ""), fields, memoryPages));
+        assertEquals(keys(tuples, fields).size(), actual.size());
+        assertEquals(keys(tuples, fields), keys(actual, fields));
+        assertTrue(tuples.containsAll(actual));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIntKey()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(new int[] {1}, 1000, Distinct.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testCompositeKey()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(new int[] {2, 0}, 40, Distinct.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * One page holds a few hundred keys, so most of them are spilled, some
+     * more than once.
+     */
+    @Test public void testSpilling()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(new int[] {0}, 100000, 1);
+        validate(new int[] {0, 1}, 200, 1);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 3000, null, null);
+        TransactionId tid = new TransactionId();
+        Distinct d = new Distinct(new SeqScan(tid, table.getId(), ""), new int[] {0}, 1);
+        d.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (d.hasNext())
+            first.add(SystemTestUtil.tupleToList(d.next()));
+        d.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (d.hasNext())
+            second.add(SystemTestUtil.tupleToList(d.next()));
+        d.close();
+        assertEquals(first, second);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testStreaming()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 30, null, tuples);
+        TransactionId tid = new TransactionId();
+        int[] fields = {1, 0};
+        OrderBy sorted = new OrderBy(fields, new boolean[] {true, true},
+                new SeqScan(tid, table.getId(), ""));
+        List<List<Integer>> actual = drain(new StreamDistinct(sorted, fields));
+        assertEquals(keys(tuples, fields).size(), actual.size());
+        assertEquals(keys(tuples, fields), new LinkedHashSet<>(keys(actual, fields)));
+        // keys come out in the order of the child
+        for (int i = 1; i < actual.size(); i++) {
+            List<Integer> a = actual.get(i - 1);
+            List<Integer> b = actual.get(i);
+            assertTrue(a.get(1) < b.get(1) || (a.get(1).equals(b.get(1)) && a.get(0) < b.get(0)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner streams DISTINCT on the key of a B+ tree, hashes others,
+     * and leaves out DISTINCT over whole groups.
+     */
+    @Test public void testPlanner()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 100, null, tuples, 0);
+        BTreeFile named = new BTreeFile(tree.getFile(), 0, Utility.getTupleDesc(COLUMNS, "f"));
+        Database.getCatalog().addTable(named, "t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(named.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = distinctPlan("t.f0").physicalPlan(tid, stats, false);
+        assertTrue(childOf(plan) instanceof StreamDistinct);
+        SystemTestUtil.matchTuples(plan, new ArrayList<>(keys(tuples, new int[] {0})));
+
+        plan = distinctPlan("t.f1").physicalPlan(tid, stats, false);
+        OpIterator hashed = childOf(plan);
+        assertTrue(hashed instanceof Distinct && !(hashed instanceof StreamDistinct));
+        SystemTestUtil.matchTuples(plan, new ArrayList<>(keys(tuples, new int[] {1})));
+
+        LogicalPlan grouped = distinctPlan("t.f1");
+        grouped.addProjectField("t.f2", "sum");
+        grouped.addAggregate("sum", "t.f2", "t.f1");
+        assertFalse(childOf(grouped.physicalPlan(tid, stats, false)) instanceof Distinct);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testOrderByNotSelected()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, 10, null, null);
+        HeapFile named = new HeapFile(table.getFile(), Utility.getTupleDesc(COLUMNS, "f"));
+        Database.getCatalog().addTable(named, "t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(named.getId(), 1));
+        LogicalPlan lp = distinctPlan("t.f0");
+        lp.addOrderBy("t.f1", true);
+        lp.physicalPlan(new TransactionId(), stats, false);
+    }
+
+    private static LogicalPlan distinctPlan(String field) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("t"), "t");
+        lp.addProjectField(field, null);
+        lp.setDistinct(true);
+        return lp;
+    }
+
+    private static OpIterator childOf(OpIterator plan) {
+        // Project(Distinct(...))
+        return ((Operator) plan).getChildren()[0];
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DistinctTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.ProfiledOperator;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExplainAnalyzeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    /**
+     * Every operator is measured, except the scan the join pushes its build
+     * keys into, and the plan returns the same tuples.
+     */
+    @Test public void testProfile() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 100, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, 100, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan1 = new SeqScan(tid, table1.getId(), "");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)), scan1);
+        SeqScan scan2 = new SeqScan(tid, table2.getId(), "");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                filter, scan2);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        int selected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            if (t1.get(1) >= 50)
+                continue;
+            selected++;
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> joined = new ArrayList<>(t1);
+                    joined.addAll(t2);
+                    expected.add(joined);
+                }
+            }
+        }
+
+        Database.resetBufferPool(1000);
+        ProfiledOperator root = (ProfiledOperator) ProfiledOperator.profile(join);
+        SystemTestUtil.matchTuples(root, expected);
+        assertSame(join, root.getChild());
+        // the join pushes its build keys into the probe scan
+        assertSame(scan2, join.getChildren()[1]);
+        ProfiledOperator build = (ProfiledOperator) join.getChildren()[0];
+        assertSame(filter, build.getChild());
+        assertSame(scan1, filter.getChildren()[0]);
+
+        assertEquals(expected.size(), root.getRows());
+        assertEquals(selected, build.getRows());
+        assertEquals(1, root.getLoops());
+        assertTrue(root.getWallNanos() >= build.getWallNanos());
+        int pages = table1.numPages() + table2.numPages();
+        assertEquals(table1.numPages(), build.getPageMisses());
+        assertEquals(pages, root.getPageMisses());
+        assertTrue(root.getPageRequests() >= pages);
+
+        String tree = new QueryPlanVisualizer().getAnalyzedPlanTree(root);
+        assertEquals(4, tree.split("\n").length);
+        assertTrue(tree.contains("rows=" + expected.size()));
+        assertTrue(tree.contains("(measured with parent)"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testExplainAnalyze() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, 100, null, null);
+        Database.getCatalog().addTable(new HeapFile(file.getFile(), Utility.getTupleDesc(COLUMNS, "f")), "t");
+        TableStats.computeStatistics();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8.name()));
+        try {
+            new Parser().processNextStatement("explain analyze SELECT t.f0 FROM t WHERE t.f1 < 10 LIMIT 5;");
+        } finally {
+            System.setOut(stdout);
+        }
+        String printed = out.toString(StandardCharsets.UTF_8.name());
+        assertTrue(printed.contains("rows=5 loops=1"));
+        assertTrue(printed.contains("5 rows in"));
+        // the rows themselves aren't printed, nor cached
+        assertEquals(0, Database.getQueryResultCache().size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExplainAnalyzeTest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<List<Integer>> expectedJoin(List<List<Integer>> t1Tuples,
+            List<List<Integer>> t2Tuples, int minT2Value) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0)) && t2.get(1) >= minT2Value) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Joins a small build side against a larger probe side, whose scan is
+     * filtered on the build side's join keys.
+     */
+    @Test public void testProbeScanFiltered()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 50, 1000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 1000, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan probe = new SeqScan(tid, table2.getId(), "");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), probe);
+        SystemTestUtil.matchTuples(join, expectedJoin(t1Tuples, t2Tuples, Integer.MIN_VALUE));
+
+        join.open();
+        assertTrue(join.isProbeFiltered());
+        assertEquals(1, probe.numRuntimeFilters());
+        join.close();
+        assertEquals(0, probe.numRuntimeFilters());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The filter is pushed through the Filters over the probe scan.
+     */
+    @Test public void testThroughFilter()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 100, 500, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 500, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan probe = new SeqScan(tid, table2.getId(), "");
+        OpIterator filtered = new Filter(
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250)), probe);
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), filtered);
+        SystemTestUtil.matchTuples(join, expectedJoin(t1Tuples, t2Tuples, 250));
+
+        join.open();
+        assertTrue(join.isProbeFiltered());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A build side too large for one hash table isn't pushed down, since
+     * a filter of one table's keys would drop the matches of the others.
+     */
+    @Test public void testLargeBuildSideNotFiltered()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, HashEquiJoin.MAP_SIZE + 500, 50000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 50000, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(join, expectedJoin(t1Tuples, t2Tuples, Integer.MIN_VALUE));
+
+        join.open();
+        assertFalse(join.isProbeFiltered());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An empty build side filters out the whole probe side.
+     */
+    @Test public void testEmptyBuildSide()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, 10, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 10, null, null);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        join.open();
+        assertFalse(join.hasNext());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    /**
+     * Joins a random heap file against a random B+ tree keyed on its first
+     * column and checks the result against a naive nested-loops join.
+     */
+    private void validateJoin(int table1Rows, int table2Rows, int maxValue,
+            Predicate.Op op, int batchSize)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, null, t1Tuples);
+
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, table2Rows, maxValue, null, t2Tuples, 0);
+
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (new IntField(t1.get(0)).compare(op,
+                        new IntField(t2.get(0)))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        IndexNestedLoopJoin joinOp = new IndexNestedLoopJoin(p, ss1, ss2, batchSize);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEquals()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(500, 2000, 200, Predicate.Op.EQUALS,
+                IndexNestedLoopJoin.DEFAULT_BATCH_SIZE);
+    }
+
+    @Test public void testEqualsSmallBatches()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(500, 2000, 200, Predicate.Op.EQUALS, 7);
+    }
+
+    @Test public void testLessThan()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(100, 1000, 1000, Predicate.Op.LESS_THAN, 16);
+    }
+
+    @Test public void testGreaterThanOrEq()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(100, 1000, 1000, Predicate.Op.GREATER_THAN_OR_EQ, 16);
+    }
+
+    @Test public void testCanProbe()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 10, null, null);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, 10, null, null, 1);
+        TransactionId tid = new TransactionId();
+        SeqScan heapScan = new SeqScan(tid, heap.getId(), "");
+        SeqScan btreeScan = new SeqScan(tid, btree.getId(), "");
+
+        assertTrue(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1), btreeScan));
+        // not the key field
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0), btreeScan));
+        // no index
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1), heapScan));
+        // not answerable by a tree search
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 1), btreeScan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
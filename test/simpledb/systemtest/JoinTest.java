@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,14 +11,24 @@ import org.junit.Test;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.Predicate;
+import simpledb.execution.Project;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.JoinedTuple;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import static org.junit.Assert.assertTrue;
+
 public class JoinTest extends SimpleDbTestBase {
     private static final int COLUMNS = 2;
     public void validateJoin(int table1ColumnValue, int table1Rows, int table2ColumnValue,
@@ -79,6 +90,110 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /** Joins an outer relation spanning several blocks using a non-equality predicate. */
+    @Test public void testBlockNestedLoops()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 1500, 100, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20, 100, null, t2Tuples);
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0) < t2.get(0)) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        // one page per block forces several passes over the inner relation
+        Join joinOp = new Join(p, ss1, ss2, 1);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Long runs of non-matching pairs must not grow the stack. */
+    @Test public void testLongNoMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(1, 3000, 2, 3000);
+    }
+
+    private static List<List<Integer>> joinRows(List<List<Integer>> left,
+            List<List<Integer>> right, int leftField, Predicate.Op op, int rightField) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> l : left) {
+            for (List<Integer> r : right) {
+                if (new IntField(l.get(leftField)).compare(op, new IntField(r.get(rightField)))) {
+                    List<Integer> row = new ArrayList<>(l);
+                    row.addAll(r);
+                    out.add(row);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Joins four tables, with each join operator returning views of the
+     * tuples it joins, and projects the result.
+     */
+    @Test public void testLateMaterialization()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(3, 300, 50, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 200, 50, null, t2Tuples);
+        List<List<Integer>> t3Tuples = new ArrayList<>();
+        BTreeFile table3 = BTreeUtility.createRandomBTreeFile(COLUMNS, 100, 50, null, t3Tuples, 0);
+        List<List<Integer>> t4Tuples = new ArrayList<>();
+        HeapFile table4 = SystemTestUtil.createRandomHeapFile(COLUMNS, 20, 50, null, t4Tuples);
+
+        // t1.0 = t2.0, t1.2 = t3.0, t2.1 < t4.0
+        List<List<Integer>> rows = joinRows(t1Tuples, t2Tuples, 0, Predicate.Op.EQUALS, 0);
+        rows = joinRows(rows, t3Tuples, 2, Predicate.Op.EQUALS, 0);
+        rows = joinRows(rows, t4Tuples, 4, Predicate.Op.LESS_THAN, 0);
+        List<Integer> outFields = Arrays.asList(1, 5, 7, 9);
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            List<Integer> out = new ArrayList<>();
+            for (int f : outFields)
+                out.add(row.get(f));
+            expectedResults.add(out);
+        }
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j12 = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "t1"), new SeqScan(tid, table2.getId(), "t2"));
+        IndexNestedLoopJoin j123 = new IndexNestedLoopJoin(new JoinPredicate(2, Predicate.Op.EQUALS, 0),
+                j12, new SeqScan(tid, table3.getId(), "t3"));
+        Join j1234 = new Join(new JoinPredicate(4, Predicate.Op.LESS_THAN, 0),
+                j123, new SeqScan(tid, table4.getId(), "t4"));
+        j12.setLateMaterialization(true);
+        j123.setLateMaterialization(true);
+        j1234.setLateMaterialization(true);
+
+        j1234.open();
+        assertTrue(!j1234.hasNext() || j1234.next() instanceof JoinedTuple);
+        j1234.close();
+
+        Type[] types = new Type[outFields.size()];
+        Arrays.fill(types, Type.INT_TYPE);
+        SystemTestUtil.matchTuples(new Project(outFields, types, j1234), expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
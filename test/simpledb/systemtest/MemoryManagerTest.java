@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryManager;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OperatorMemory;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.Query;
+import simpledb.execution.QueryMemory;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryManagerTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    // small enough for every operator below to spill
+    private static final int MEMORY_PAGES = 4;
+
+    /**
+     * Run a plan as a query, checking that all of its memory is returned
+     * when it is closed.
+     */
+    private static List<List<Integer>> run(OpIterator plan, TransactionId tid) throws Exception {
+        MemoryManager manager = Database.getMemoryManager();
+        Query query = new Query(plan, tid);
+        List<List<Integer>> out = new ArrayList<>();
+        query.start();
+        QueryMemory memory = query.getQueryMemory();
+        while (query.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(query.next()));
+        }
+        assertTrue(memory.getPeak() > 0);
+        assertTrue(memory.getPeak() <= manager.getCapacity());
+        query.close();
+        assertEquals(0, manager.getUsed());
+        assertEquals(0, manager.getRunningQueries());
+        return out;
+    }
+
+    /**
+     * A query gets no more than its share of the capacity, which shrinks as
+     * other queries start, and gets it back as they end.
+     */
+    @Test public void testFairShare() {
+        int page = BufferPool.getPageSize();
+        MemoryManager manager = new MemoryManager(8L * page);
+        QueryMemory q1 = manager.open();
+        OperatorMemory m1 = q1.operatorMemory();
+        // the first page is free
+        assertTrue(m1.tryReserve(page));
+        assertEquals(0, manager.getUsed());
+        assertTrue(m1.tryReserve(4L * page));
+        assertEquals(4L * page, q1.getGranted());
+
+        QueryMemory q2 = manager.open();
+        OperatorMemory m2 = q2.operatorMemory();
+        // each query's share is now 4 pages
+        assertFalse(m1.tryReserve(page));
+        assertEquals(5L * page, m1.getUsed());
+        assertTrue(m2.tryReserve(5L * page));
+        assertFalse(m2.tryReserve(page));
+        assertEquals(8L * page, manager.getUsed());
+
+        m1.releaseAll();
+        assertEquals(0, q1.getGranted());
+        assertEquals(4L * page, q1.getPeak());
+        q1.close();
+        assertEquals(1, manager.getRunningQueries());
+        assertEquals(4L * page, manager.getUsed());
+        // the whole capacity is q2's share again
+        assertTrue(m2.tryReserve(page));
+        q2.close();
+        assertEquals(0, manager.getUsed());
+        assertFalse(m2.tryReserve(page));
+    }
+
+    /** Memory an operator can't do without fails the query when refused. */
+    @Test public void testReserveFails() throws Exception {
+        int page = BufferPool.getPageSize();
+        MemoryManager manager = new MemoryManager(page);
+        QueryMemory q = manager.open();
+        OperatorMemory m = q.operatorMemory();
+        m.reserve(page, "test");
+        m.reserve(page, "test");
+        try {
+            m.reserve(1, "test");
+            fail("expected the reservation to be refused");
+        } catch (DbException e) {
+            // expected
+        }
+        q.close();
+    }
+
+    @Test public void testOrderBySpills() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 100000, null, tuples);
+        Database.resetMemoryManager((long) MEMORY_PAGES * BufferPool.getPageSize());
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> sorted = run(new OrderBy(0, true,
+                new SeqScan(tid, table.getId(), "")), tid);
+        tuples.sort((t1, t2) -> Integer.compare(t1.get(0), t2.get(0)));
+        assertEquals(tuples.size(), sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(tuples.get(i).get(0), sorted.get(i).get(0));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregateSpills() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 100000, null, tuples);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t.get(0), 1, Integer::sum);
+        }
+        Database.resetMemoryManager((long) MEMORY_PAGES * BufferPool.getPageSize());
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> groups = run(new Aggregate(new SeqScan(tid, table.getId(), ""),
+                1, 0, Aggregator.Op.COUNT), tid);
+        assertEquals(counts.size(), groups.size());
+        for (List<Integer> g : groups) {
+            assertEquals(counts.get(g.get(0)), g.get(1));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoinInChunks() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 500, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 500, null, t2Tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> joined = new ArrayList<>(t1);
+                    joined.addAll(t2);
+                    expected.add(joined);
+                }
+            }
+        }
+
+        Database.resetMemoryManager((long) MEMORY_PAGES * BufferPool.getPageSize());
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        List<List<Integer>> actual = run(join, tid);
+        assertEquals(expected.size(), actual.size());
+        expected.sort(MemoryManagerTest::compare);
+        actual.sort(MemoryManagerTest::compare);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int compare(List<Integer> t1, List<Integer> t2) {
+        for (int i = 0; i < t1.size(); i++) {
+            int c = Integer.compare(t1.get(i), t2.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MemoryManagerTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<List<Integer>> drain(OrderBy ob)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        while (ob.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(ob.next()));
+        }
+        return out;
+    }
+
+    /**
+     * Sorts a random table and checks the output order exactly; the heap
+     * file is scanned in insertion order and the sort is stable, so ties keep
+     * that order too.
+     */
+    private void validateOrderBy(int rows, int maxValue, boolean asc, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, rows, maxValue, null, tuples);
+
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> cmp = Comparator.comparing(t -> t.get(0));
+        expected.sort(asc ? cmp : cmp.reversed());
+
+        TransactionId tid = new TransactionId();
+        OrderBy ob = new OrderBy(0, asc, new SeqScan(tid, table.getId(), ""), memoryPages);
+        ob.open();
+        assertEquals(expected, drain(ob));
+        ob.rewind();
+        assertEquals(expected, drain(ob));
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        validateOrderBy(1000, 100, true, OrderBy.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testEmpty()
+            throws IOException, DbException, TransactionAbortedException {
+        validateOrderBy(0, 100, true, 1);
+    }
+
+    @Test public void testSingleMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        // 8 byte tuples, 512 per page: 4 runs merged at once
+        validateOrderBy(2000, 100000, true, 8);
+    }
+
+    @Test public void testMultiPassMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        // one page of memory: runs of 512 tuples, merged two at a time
+        validateOrderBy(5000, 100000, false, 1);
+    }
+
+    @Test public void testDuplicatesAcrossRuns()
+            throws IOException, DbException, TransactionAbortedException {
+        validateOrderBy(3000, 10, true, 2);
+    }
+
+    /**
+     * Sorts on the second column descending, then the first ascending, and
+     * checks the output order exactly.
+     */
+    private void validateMultiKey(int rows, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, rows, 20, null, tuples);
+
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> cmp = Comparator.comparing((List<Integer> t) -> t.get(1))
+                .reversed().thenComparing(t -> t.get(0));
+        expected.sort(cmp);
+
+        TransactionId tid = new TransactionId();
+        OrderBy ob = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true },
+                new SeqScan(tid, table.getId(), ""), memoryPages);
+        ob.open();
+        assertEquals(expected, drain(ob));
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMultiKeyInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        validateMultiKey(1000, OrderBy.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testMultiKeyExternal()
+            throws IOException, DbException, TransactionAbortedException {
+        validateMultiKey(3000, 1);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelAggregate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertTrue;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    // 12 byte tuples, about 330 per page: about 60 pages
+    private static final int ROWS = 20000;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * Checks that ParallelAggregate computes the same groups as Aggregate.
+     */
+    private void validate(Aggregator.Op op, int groupColumn, int maxValue, int workers)
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, maxValue, null, null);
+        assertTrue(table.numPages() > workers * ParallelAggregate.MORSEL_PAGES);
+
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(
+                new Aggregate(new SeqScan(tid, table.getId(), ""), 1, groupColumn, op));
+        ParallelAggregate pa = new ParallelAggregate(
+                new SeqScan(tid, table.getId(), ""), 1, groupColumn, op, workers);
+        SystemTestUtil.matchTuples(pa, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCountNoGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(Aggregator.Op.COUNT, Aggregator.NO_GROUPING, 1000, 4);
+    }
+
+    @Test public void testSumNoGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(Aggregator.Op.SUM, Aggregator.NO_GROUPING, 1000, 4);
+    }
+
+    @Test public void testAverageNoGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(Aggregator.Op.AVG, Aggregator.NO_GROUPING, 1000, 3);
+    }
+
+    @Test public void testGroupedMinMax()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(Aggregator.Op.MIN, 0, 500, 4);
+        validate(Aggregator.Op.MAX, 0, 500, 4);
+    }
+
+    @Test public void testGroupedAverage()
+            throws IOException, DbException, TransactionAbortedException {
+        // the average of partial averages would differ: sums and counts are merged
+        validate(Aggregator.Op.AVG, 0, 50, 4);
+    }
+
+    @Test public void testSingleWorker()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(Aggregator.Op.SUM, 0, 100, 1);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, null);
+        TransactionId tid = new TransactionId();
+        ParallelAggregate pa = new ParallelAggregate(
+                new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.COUNT, 4);
+        pa.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (pa.hasNext())
+            first.add(SystemTestUtil.tupleToList(pa.next()));
+        pa.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (pa.hasNext())
+            second.add(SystemTestUtil.tupleToList(pa.next()));
+        pa.close();
+        assertTrue(first.equals(second));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
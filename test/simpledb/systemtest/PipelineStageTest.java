@@ -0,0 +1,225 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.PipelineStage;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelineStageTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return out;
+    }
+
+    /**
+     * A stage returns the tuples of its child in order, through a queue much
+     * smaller than the child, and again once rewound.
+     */
+    @Test public void testHandoff() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500)
+                expected.add(t);
+        }
+
+        PipelineStage stage = new PipelineStage(new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId(), "")), 7, 2);
+        stage.open();
+        assertEquals(expected, drain(stage));
+        stage.rewind();
+        assertEquals(expected, drain(stage));
+        stage.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a stage its parent stopped reading stops its thread. */
+    @Test(timeout = 60000) public void testEarlyClose() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        PipelineStage stage = new PipelineStage(new SeqScan(tid, table.getId(), ""), 1, 1);
+        for (int i = 0; i < 10; i++) {
+            stage.open();
+            assertTrue(stage.hasNext());
+            stage.next();
+            stage.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The parent gets the tuples before the child failed, then the error. */
+    @Test public void testFailure() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        Operator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+            private int next = 0;
+
+            @Override
+            protected Tuple fetchNext() throws DbException {
+                if (next == 10)
+                    throw new DbException("child failed");
+                return Utility.getHeapTuple(next++);
+            }
+
+            @Override
+            public OpIterator[] getChildren() {
+                return new OpIterator[0];
+            }
+
+            @Override
+            public void setChildren(OpIterator[] children) {
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public void rewind() {
+                next = 0;
+            }
+        };
+
+        PipelineStage stage = new PipelineStage(failing, 3, 2);
+        stage.open();
+        int returned = 0;
+        try {
+            while (stage.hasNext()) {
+                stage.next();
+                returned++;
+            }
+            fail("expected the error of the child");
+        } catch (DbException e) {
+            assertEquals("child failed", e.getMessage());
+        }
+        assertEquals(10, returned);
+        stage.close();
+    }
+
+    /**
+     * Stages go above scans whose tuples are consumed as they are, and not
+     * under the probe side of a hash join, which filters its scan on the
+     * join keys.
+     */
+    @Test public void testPipeline() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 100, null, t1Tuples);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, 100, null, null);
+        TransactionId tid = new TransactionId();
+
+        SeqScan scan1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan scan2 = new SeqScan(tid, table2.getId(), "");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)), scan1),
+                scan2);
+        join.open();
+        List<List<Integer>> expected = drain(join);
+        join.close();
+
+        assertSame(join, PipelineStage.pipeline(join));
+        assertTrue(join.getChildren()[0] instanceof PipelineStage);
+        assertSame(scan2, join.getChildren()[1]);
+        join.open();
+        assertEquals(expected, drain(join));
+        assertTrue(join.isProbeFiltered());
+        join.close();
+
+        Aggregate count = new Aggregate(new SeqScan(tid, table1.getId(), ""),
+                1, 0, Aggregator.Op.COUNT);
+        PipelineStage.pipeline(count);
+        assertTrue(count.getChildren()[0] instanceof PipelineStage);
+        count.open();
+        int total = 0;
+        for (List<Integer> group : drain(count)) {
+            total += group.get(1);
+        }
+        count.close();
+        assertEquals(t1Tuples.size(), total);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A pipelined plan returns the same results as the plain one. */
+    @Test public void testPipelinedPlan() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 100, null, null);
+        Database.getCatalog().addTable(new HeapFile(file.getFile(), Utility.getTupleDesc(COLUMNS, "f")), "t");
+        HeapFile file2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 100, null, null);
+        Database.getCatalog().addTable(new HeapFile(file2.getFile(), Utility.getTupleDesc(COLUMNS, "g")), "u");
+        TableStats.computeStatistics();
+        String sql = "SELECT t.f1, COUNT(u.g1) FROM t, u WHERE t.f0 = u.g0 AND t.f1 < 50 GROUP BY t.f1;";
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalPlan plain = p.generateLogicalPlan(tid, sql);
+        OpIterator plan = plain.physicalPlan(tid, TableStats.getStatsMap(), false);
+        plan.open();
+        List<List<Integer>> expected = drain(plan);
+        plan.close();
+
+        LogicalPlan pipelined = p.generateLogicalPlan(tid, sql);
+        pipelined.setPipelined(true);
+        plan = pipelined.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(hasStage(plan));
+        plan.open();
+        List<List<Integer>> actual = drain(plan);
+        plan.close();
+        expected.sort((a, b) -> Integer.compare(a.get(0), b.get(0)));
+        actual.sort((a, b) -> Integer.compare(a.get(0), b.get(0)));
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean hasStage(OpIterator plan) {
+        if (plan instanceof PipelineStage)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (hasStage(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PipelineStageTest.class);
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelAggregate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectedScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 2000;
+
+    private static List<List<Integer>> project(List<List<Integer>> tuples, int[] columns) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> out = new ArrayList<>();
+            for (int c : columns)
+                out.add(t.get(c));
+            result.add(out);
+        }
+        return result;
+    }
+
+    @Test public void testHeapFile()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples);
+        int[] columns = {3, 1};
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t", columns);
+        assertTrue(scan.isProjected());
+        assertArrayEquals(columns, scan.getColumns());
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t." + table.getTupleDesc().getFieldName(3), scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, project(tuples, columns));
+
+        // the tuples keep their place in the file, so they can be deleted
+        scan.open();
+        Tuple t = scan.next();
+        assertEquals(2, t.getTupleDesc().numFields());
+        assertNotNull(t.getRecordId());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBTreeFile()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile table = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 1000, null, tuples, 0);
+        int[] columns = {2};
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId(), "", columns),
+                project(tuples, columns));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Index lookups return the fields of the inner scan, whose key is not
+     * its first field.
+     */
+    @Test public void testIndexNestedLoopJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 200, 300, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 300, null, t2Tuples, 0);
+        int[] columns = {3, 0};
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : project(t2Tuples, columns)) {
+                if (t1.get(0).equals(t2.get(1))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SeqScan inner = new SeqScan(tid, table2.getId(), "", columns);
+        assertTrue(IndexNestedLoopJoin.canProbe(p, inner));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0), inner));
+        SystemTestUtil.matchTuples(new IndexNestedLoopJoin(p,
+                new SeqScan(tid, table1.getId(), ""), inner), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 50, null, tuples);
+
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples)
+            sums.merge(t.get(2), t.get(3), Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "", new int[] {3, 2});
+        SystemTestUtil.matchTuples(new ParallelAggregate(scan, 0, 1, Aggregator.Op.SUM, 3), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner only reads the fields the query uses.
+     */
+    @Test public void testPlannerPrunesFields()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, tuples);
+        HeapFile named = new HeapFile(file.getFile(), Utility.getTupleDesc(COLUMNS, "f"));
+        Database.getCatalog().addTable(named, "t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(named.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(named.getId(), "t");
+        lp.addFilter("t.f2", Predicate.Op.LESS_THAN, "50");
+        lp.addProjectField("t.f1", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(2) < 50)
+                expected.add(Arrays.asList(t.get(1)));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertArrayEquals(new int[] {1, 2}, scanOf(plan).getColumns());
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // SELECT * reads everything
+        LogicalPlan all = new LogicalPlan();
+        all.addScan(named.getId(), "t");
+        all.addProjectField("*", null);
+        assertFalse(scanOf(all.physicalPlan(tid, stats, false)).isProjected());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static SeqScan scanOf(OpIterator plan) {
+        while (!(plan instanceof SeqScan))
+            plan = ((Operator) plan).getChildren()[0];
+        return (SeqScan) plan;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectedScanTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Query;
+import simpledb.execution.QueryResultCache;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryResultCacheTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 100, null, tuples);
+        table = new HeapFile(file.getFile(), Utility.getTupleDesc(COLUMNS, "f"));
+        Database.getCatalog().addTable(table, "t");
+        TableStats.computeStatistics();
+    }
+
+    private static Query query(Parser p, TransactionId tid, String sql) throws Exception {
+        ZqlParser zp = new ZqlParser(new ByteArrayInputStream(sql.getBytes(StandardCharsets.UTF_8)));
+        return p.handleQueryStatement((ZQuery) zp.readStatement(), tid);
+    }
+
+    private static List<List<Integer>> run(Query q) throws Exception {
+        List<List<Integer>> out = new ArrayList<>();
+        q.start();
+        while (q.hasNext())
+            out.add(SystemTestUtil.tupleToList(q.next()));
+        q.close();
+        return out;
+    }
+
+    private List<List<Integer>> selected(int max) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < max)
+                expected.add(t);
+        }
+        return expected;
+    }
+
+    @Test public void testHit() throws Exception {
+        QueryResultCache cache = Database.getQueryResultCache();
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        List<List<Integer>> first = run(query(p, tid, "SELECT * FROM t WHERE t.f0 < 50;"));
+        assertEquals(selected(50), first);
+        assertEquals(1, cache.size());
+
+        // the same statement, written differently
+        Query again = query(p, tid, "select *   from t where t.f0<50;");
+        assertTrue(again.getPhysicalPlan() instanceof TupleIterator);
+        assertEquals(first, run(again));
+        assertEquals(1, cache.getHits());
+
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a different LIMIT is a different result
+        p.processNextStatement("SELECT * FROM t WHERE t.f0 < 50 LIMIT 3;");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool invalidate the results
+     * read from the table.
+     */
+    @Test public void testInvalidation() throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        String sql = "SELECT * FROM t WHERE t.f0 < 50;";
+        run(query(p, tid, sql));
+
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[] {7, 7}));
+        Query q = query(p, tid, sql);
+        assertFalse(q.getPhysicalPlan() instanceof TupleIterator);
+        List<List<Integer>> afterInsert = run(q);
+        assertEquals(selected(50).size() + 1, afterInsert.size());
+        assertTrue(afterInsert.contains(Arrays.asList(7, 7)));
+
+        // committing bumps the versions again
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        Query committed = query(p, tid, sql);
+        assertFalse(committed.getPhysicalPlan() instanceof TupleIterator);
+        assertEquals(afterInsert, run(committed));
+        assertTrue(query(p, tid, sql).getPhysicalPlan() instanceof TupleIterator);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The least recently used results are evicted, and results larger than
+     * the cache aren't kept.
+     */
+    @Test public void testEviction() throws Exception {
+        TransactionId tid = new TransactionId();
+        int tupleSize = table.getTupleDesc().getSize();
+        QueryResultCache cache = new QueryResultCache(150L * tupleSize);
+        Map<Integer, Long> versions = new HashMap<>();
+        versions.put(table.getId(), 0L);
+
+        drain(cache.record("a", versions, scan(tid, 100)));
+        drain(cache.record("b", versions, scan(tid, 40)));
+        assertEquals(2, cache.size());
+        assertEquals(140L * tupleSize, cache.getBytes());
+        drain(cache.record("c", versions, scan(tid, 40)));
+        assertNull(cache.get("a", versions));
+        assertEquals(2, cache.size());
+
+        drain(cache.record("d", versions, scan(tid, 1000)));
+        assertNull(cache.get("d", versions));
+        assertEquals(2, cache.size());
+        versions.put(table.getId(), 1L);
+        assertNull(cache.get("b", versions));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private OpIterator scan(TransactionId tid, int rows) {
+        return new Limit(rows, 0, new SeqScan(tid, table.getId(), ""));
+    }
+
+    private static void drain(OpIterator it) throws Exception {
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(QueryResultCacheTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Query;
+import simpledb.execution.QueryCursor;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryStreamTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    /**
+     * Passes its child's tuples through, counting them and whether it is
+     * open, and failing after a given number of them.
+     */
+    private static class Probe extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator child;
+        private final int failAfter;
+        volatile int read = 0;
+        volatile boolean open = false;
+
+        Probe(OpIterator child, int failAfter) {
+            this.child = child;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+            open = true;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            child.close();
+            open = false;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (read == failAfter)
+                throw new DbException("failed after " + failAfter + " tuples");
+            if (!child.hasNext())
+                return null;
+            read++;
+            return child.next();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+    }
+
+    private ExecutorService executor;
+    private TransactionId tid;
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        tid = new TransactionId();
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        executor.shutdownNow();
+    }
+
+    private Probe probe(int failAfter) {
+        return new Probe(new SeqScan(tid, table.getId(), ""), failAfter);
+    }
+
+    @Test public void streamAll() {
+        Probe probe = probe(-1);
+        QueryCursor cursor = new Query(probe, tid).stream(executor, 700);
+        List<List<Integer>> result = new ArrayList<>();
+        List<Tuple> batch;
+        while (!(batch = cursor.fetch().join()).isEmpty()) {
+            assertTrue(batch.size() <= 700);
+            for (Tuple t : batch)
+                result.add(SystemTestUtil.tupleToList(t));
+        }
+        assertFalse(probe.open);
+        // fetching past the end keeps returning empty batches
+        assertTrue(cursor.fetch().join().isEmpty());
+        cursor.cancel().join();
+
+        // the scan returns the tuples in the order they were written
+        assertEquals(tuples, result);
+    }
+
+    /**
+     * The plan only runs as far as the batches asked for, and cancelling
+     * closes it early.
+     */
+    @Test public void backpressureAndCancel() {
+        Probe probe = probe(-1);
+        QueryCursor cursor = new Query(probe, tid).stream(executor, 100);
+        assertEquals(100, cursor.fetch().join().size());
+        assertEquals(100, cursor.fetch().join().size());
+        assertEquals(200, probe.read);
+        assertTrue(probe.open);
+
+        cursor.cancel().join();
+        assertFalse(probe.open);
+        assertEquals(200, probe.read);
+        assertTrue(cursor.fetch().join().isEmpty());
+    }
+
+    @Test public void failure() {
+        Probe probe = probe(150);
+        QueryCursor cursor = new Query(probe, tid).stream(executor, 100);
+        assertEquals(100, cursor.fetch().join().size());
+        try {
+            cursor.fetch().join();
+            fail("expected the batch to fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+        assertFalse(probe.open);
+        cursor.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(QueryStreamTest.class);
+    }
+}
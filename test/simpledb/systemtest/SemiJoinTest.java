@@ -0,0 +1,173 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.HashSemiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    /**
+     * @return the tuples of outer whose field f1 is (or, if anti, isn't)
+     *         field f2 of some tuple of inner
+     */
+    private static List<List<Integer>> expected(List<List<Integer>> outer, int f1,
+            List<List<Integer>> inner, int f2, boolean anti) {
+        Set<Integer> keys = new HashSet<>();
+        for (List<Integer> t : inner)
+            keys.add(t.get(f2));
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : outer) {
+            if (keys.contains(t.get(f1)) != anti)
+                result.add(t);
+        }
+        return result;
+    }
+
+    private void validate(boolean anti)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 1000, null, t1Tuples);
+        // many duplicate keys, which mustn't duplicate the outer tuples
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 500, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        HashSemiJoin join = new HashSemiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), anti);
+        SystemTestUtil.matchTuples(join, expected(t1Tuples, 0, t2Tuples, 1, anti));
+
+        // only a semi-join can drop the outer tuples without a match early
+        join.open();
+        assertEquals(!anti, join.isProbeFiltered());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSemiJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(false);
+    }
+
+    @Test public void testAntiJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(true);
+    }
+
+    /**
+     * Without a predicate, all outer tuples are kept or none is.
+     */
+    @Test public void testUncorrelated()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, 100, null, tuples);
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, 100, null, null);
+        HeapFile nonEmpty = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, 100, null, null);
+
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> none = new ArrayList<>();
+        SystemTestUtil.matchTuples(new HashSemiJoin(null, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, nonEmpty.getId(), ""), false), tuples);
+        SystemTestUtil.matchTuples(new HashSemiJoin(null, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, empty.getId(), ""), false), none);
+        SystemTestUtil.matchTuples(new HashSemiJoin(null, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, nonEmpty.getId(), ""), true), none);
+        SystemTestUtil.matchTuples(new HashSemiJoin(null, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, empty.getId(), ""), true), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsEquality()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, 10, null, null);
+        TransactionId tid = new TransactionId();
+        new HashSemiJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, table.getId(), ""), new SeqScan(tid, table.getId(), ""), false);
+    }
+
+    /**
+     * IN, NOT IN, EXISTS and NOT EXISTS subqueries are planned onto
+     * semi-joins and anti-joins.
+     */
+    @Test public void testSubqueries()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tTuples = new ArrayList<>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 300, null, tTuples);
+        Database.getCatalog().addTable(new HeapFile(t.getFile(), Utility.getTupleDesc(COLUMNS, "f")), "t");
+        List<List<Integer>> sTuples = new ArrayList<>();
+        HeapFile s = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 300, null, sTuples);
+        Database.getCatalog().addTable(new HeapFile(s.getFile(), Utility.getTupleDesc(COLUMNS, "g")), "s");
+        TableStats.computeStatistics();
+
+        List<List<Integer>> sFiltered = new ArrayList<>();
+        for (List<Integer> tuple : sTuples) {
+            if (tuple.get(0) < 150)
+                sFiltered.add(tuple);
+        }
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        validateQuery(p, tid, "SELECT * FROM t WHERE t.f1 IN (SELECT s.g0 FROM s WHERE s.g0 < 150);",
+                expected(tTuples, 1, sFiltered, 0, false));
+        validateQuery(p, tid, "SELECT * FROM t WHERE t.f0 NOT IN (SELECT s.g1 FROM s);",
+                expected(tTuples, 0, sTuples, 1, true));
+        validateQuery(p, tid, "SELECT * FROM t WHERE EXISTS "
+                + "(SELECT s.g1 FROM s WHERE s.g0 = t.f1 AND s.g0 < 150);",
+                expected(tTuples, 1, sFiltered, 0, false));
+        validateQuery(p, tid, "SELECT * FROM t WHERE NOT EXISTS (SELECT s.g1 FROM s WHERE t.f0 = s.g1);",
+                expected(tTuples, 0, sTuples, 1, true));
+        validateQuery(p, tid, "SELECT * FROM t WHERE EXISTS (SELECT s.g1 FROM s WHERE s.g0 > 1000);",
+                new ArrayList<>());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void validateQuery(Parser p, TransactionId tid, String query,
+            List<List<Integer>> expected)
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        OpIterator plan = p.generateLogicalPlan(tid, query)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        SystemTestUtil.matchTuples(plan, expected);
+        assertTrue(containsSemiJoin(plan));
+    }
+
+    private static boolean containsSemiJoin(OpIterator plan) {
+        if (plan instanceof HashSemiJoin)
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && containsSemiJoin(child))
+                return true;
+        }
+        return false;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SemiJoinTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.SessionExecutor;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionExecutorTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 5000;
+
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        Database.getCatalog().addTable(new HeapFile(file.getFile(), Utility.getTupleDesc(COLUMNS, "f")), "t");
+        TableStats.computeStatistics();
+        // fewer pages than the table, so that sessions read pages concurrently
+        Database.resetBufferPool(10);
+    }
+
+    private int countBelow(int max) {
+        int count = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < max)
+                count++;
+        }
+        return count;
+    }
+
+    private static String text(ByteArrayOutputStream out) throws Exception {
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Thousands of sessions, each scanning the table, all get their own
+     * results.
+     */
+    @Test public void testConcurrentSessions() throws Exception {
+        int sessions = 2000;
+        SessionExecutor executor = new SessionExecutor(32);
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outputs.add(out);
+            SessionExecutor.Session session = executor.openSession(
+                    new PrintStream(out, true, StandardCharsets.UTF_8.name()));
+            done.add(session.submit("SELECT COUNT(t.f0) FROM t WHERE t.f1 < " + i + ";"));
+        }
+        assertEquals(sessions, executor.getOpenSessions());
+        CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(5, TimeUnit.MINUTES);
+        assertEquals(0, executor.getPendingStatements());
+        executor.close();
+        assertEquals(0, executor.getOpenSessions());
+
+        for (int i = 0; i < sessions; i++) {
+            String printed = text(outputs.get(i));
+            assertTrue(printed, printed.contains("committed."));
+            assertTrue(printed, Arrays.asList(printed.split("\n")).contains(countBelow(i) + "\t"));
+        }
+    }
+
+    /** The statements of a session run in the order they were submitted. */
+    @Test public void testSessionOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        SessionExecutor executor = new SessionExecutor(pool);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionExecutor.Session session = executor.openSession(
+                new PrintStream(out, true, StandardCharsets.UTF_8.name()));
+        session.submit("INSERT INTO t VALUES (1, 6001);");
+        session.submit("INSERT INTO t VALUES (2, 6002);");
+        session.submit("SELECT COUNT(t.f0) FROM t WHERE t.f1 > 6000;").get(1, TimeUnit.MINUTES);
+        session.close();
+        executor.close();
+        // the executor was given, so it is left running
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+
+        String printed = text(out);
+        assertTrue(printed, Arrays.asList(printed.split("\n")).contains("2\t"));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SessionExecutorTest.class);
+    }
+}
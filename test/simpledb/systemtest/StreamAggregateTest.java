@@ -0,0 +1,178 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.COUNT, Aggregator.Op.SUM,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    private static int[] column2(int n) {
+        int[] afields = new int[n];
+        Arrays.fill(afields, 2);
+        return afields;
+    }
+
+    /**
+     * Checks that StreamAggregate over the sorted table computes the same
+     * groups as Aggregate over the table.
+     */
+    private void validateSorted(int[] gfields, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, maxValue, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(new Aggregate(
+                new SeqScan(tid, table.getId(), ""), column2(OPS.length), gfields, OPS));
+
+        boolean[] asc = new boolean[gfields.length];
+        asc[0] = true;
+        OrderBy sorted = new OrderBy(gfields, asc, new SeqScan(tid, table.getId(), ""));
+        StreamAggregate sa = new StreamAggregate(sorted, column2(OPS.length), gfields, OPS);
+        SystemTestUtil.matchTuples(sa, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSingleGroupField()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSorted(new int[] {0}, 100);
+    }
+
+    @Test public void testCompositeGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSorted(new int[] {1, 0}, 20);
+    }
+
+    @Test public void testBTreeInput()
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile table = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 200, null, null, 0);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(new Aggregate(
+                new SeqScan(tid, table.getId(), ""), 2, 0, Aggregator.Op.AVG));
+
+        SystemTestUtil.matchTuples(new StreamAggregate(
+                new SeqScan(tid, table.getId(), ""), 2, 0, Aggregator.Op.AVG), expected);
+        SystemTestUtil.matchTuples(new StreamAggregate(
+                new BTreeScan(tid, table.getId(), "", null), 2, 0, Aggregator.Op.AVG), expected);
+
+        // groups come out in key order
+        List<List<Integer>> actual = drain(new StreamAggregate(
+                new SeqScan(tid, table.getId(), ""), 2, 0, Aggregator.Op.COUNT));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(actual.get(i - 1).get(0) < actual.get(i).get(0));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile table = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 50, null, null, 0);
+        TransactionId tid = new TransactionId();
+        StreamAggregate sa = new StreamAggregate(
+                new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.SUM);
+        sa.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (sa.hasNext())
+            first.add(SystemTestUtil.tupleToList(sa.next()));
+        sa.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (sa.hasNext())
+            second.add(SystemTestUtil.tupleToList(sa.next()));
+        sa.close();
+        assertEquals(first, second);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, 10, null, null);
+        new StreamAggregate(new SeqScan(new TransactionId(), table.getId(), ""),
+                new int[] {1}, new int[0], new Aggregator.Op[] {Aggregator.Op.SUM});
+    }
+
+    /**
+     * The planner streams groups on the key of a B+ tree, and hashes others.
+     */
+    @Test public void testPlannerChoosesStreaming()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 100, null, null, 0);
+        BTreeFile named = new BTreeFile(tree.getFile(), 0, Utility.getTupleDesc(COLUMNS, "f"));
+        Database.getCatalog().addTable(named, "t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(named.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        assertTrue(aggregateOf(groupedPlan("t.f0", false).physicalPlan(tid, stats, false))
+                instanceof StreamAggregate);
+        assertTrue(aggregateOf(groupedPlan("t.f0", true).physicalPlan(tid, stats, false))
+                instanceof StreamAggregate);
+        OpIterator hashed = aggregateOf(groupedPlan("t.f1", false).physicalPlan(tid, stats, false));
+        assertTrue(hashed instanceof Aggregate && !(hashed instanceof StreamAggregate));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static LogicalPlan groupedPlan(String gfield, boolean filtered) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("t"), "t");
+        if (filtered)
+            lp.addFilter("t.f2", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField(gfield, null);
+        lp.addProjectField("t.f2", "sum");
+        lp.addAggregate("sum", "t.f2", gfield);
+        return lp;
+    }
+
+    private static OpIterator aggregateOf(OpIterator plan) {
+        // Project(Aggregate(...))
+        return ((Operator) plan).getChildren()[0];
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}